@@ -0,0 +1,128 @@
+package com.notenoughmail.rssifier;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.notenoughmail.rssifier.components.Config;
+import com.notenoughmail.rssifier.components.FeedDef;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+import org.jsoup.select.Elements;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The checked-in fixtures benchmarks run against, so that results do not depend on the network or the state of any real site
+ * <p>
+ * {@code blog.html}, {@code news.html}, and {@code archive.html} are snapshots of a blog's front page listing 10, 60,
+ * and 400 posts. {@code config.json} defines a feed for the newest post of a page, {@code single}, and one for every
+ * post of a page, {@code multi}
+ */
+public final class Fixtures {
+
+    public static final String BASE_URL = "https://example.org/";
+
+    private Fixtures() {}
+
+    public static String read(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No fixture named " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Document site(String name) {
+        return Jsoup.parse(read(name + ".html"), BASE_URL);
+    }
+
+    /**
+     * @return The text of a feed file with {@code items} items, as Rssifier would have written it
+     */
+    public static String feed(int items) {
+        final StringBuilder builder = new StringBuilder("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <rss version="2.0" xmlns:atom="http://www.w3.org/2005/Atom">
+                    <channel>
+                        <generator>NotEnoughMail's Rssifier Project</generator>
+                        <title>Workshop Notes</title>
+                        <description>Benchmark feed</description>
+                        <link>https://example.org/</link>
+                """);
+        final Document archive = site("archive");
+        final Elements articles = archive.select("main > article");
+        for (int i = 0 ; i < items ; i++) {
+            final Element article = articles.get(i % articles.size());
+            final String title = article.selectFirst("h2.entry-title > a").text() + " #" + i;
+            final String link = article.selectFirst("h2.entry-title > a").attr("abs:href") + i;
+            builder.append("""
+                            <item>
+                                <title>%s</title>
+                                <pubDate>%s</pubDate>
+                                <description>%s</description>
+                                <link>%s?utm_source=rss</link>
+                                <guid>%s</guid>
+                                <author>%s</author>
+                            </item>
+                    """.formatted(
+                    title,
+                    article.selectFirst("time.published").text(),
+                    // Descriptions are stored escaped, as written by appendText
+                    Entities.escape(article.selectFirst("div.entry-summary").outerHtml()),
+                    link,
+                    link,
+                    article.selectFirst("span.author > a").text()
+            ));
+        }
+        return builder.append("""
+                    </channel>
+                </rss>
+                """).toString();
+    }
+
+    /**
+     * A temporary directory with the fixture config, and a {@link Rssifier} using it
+     */
+    public record Workspace(Path directory, Rssifier rss, Config config) implements AutoCloseable {
+
+        public static Workspace create() throws IOException {
+            final Path directory = Files.createTempDirectory("rssifier-jmh");
+            final String config = read("config.json");
+            Files.writeString(directory.resolve("config.json"), config);
+            final Rssifier rss = new Rssifier(directory);
+            final JsonObject json = JsonParser.parseString(config).getAsJsonObject();
+            return new Workspace(directory, rss, Config.parse(json, directory.resolve("feeds"), rss));
+        }
+
+        public Path feeds() {
+            return directory.resolve("feeds");
+        }
+
+        public FeedDef feed(String file) {
+            return config.feeds().stream()
+                    .filter(def -> def.file().getFileName().toString().equals(file + ".xml"))
+                    .findFirst()
+                    .orElseThrow();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.notenoughmail.rssifier;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting config json and site elements for error posts
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormattingBenchmark {
+
+    private JsonObject config;
+    private Element article, page;
+
+    @Setup
+    public void setup() {
+        config = JsonParser.parseString(Fixtures.read("config.json")).getAsJsonObject();
+        page = Fixtures.site("blog");
+        article = page.selectFirst("main > article");
+    }
+
+    @Benchmark
+    public String json() {
+        return RssifierFormatting.json(config);
+    }
+
+    @Benchmark
+    public String htmlPost() {
+        return RssifierFormatting.html(article);
+    }
+
+    @Benchmark
+    public String htmlPage() {
+        return RssifierFormatting.html(page);
+    }
+}
@@ -0,0 +1,48 @@
+package com.notenoughmail.rssifier.components;
+
+import com.notenoughmail.rssifier.Fixtures;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a post's description from several components
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DescriptionBenchmark {
+
+    @Param({"blog", "archive"})
+    public String fixture;
+
+    private Fixtures.Workspace workspace;
+    private Document site;
+    private FeedDef def;
+
+    @Setup
+    public void setup() throws IOException {
+        workspace = Fixtures.Workspace.create();
+        site = Fixtures.site(fixture);
+        def = workspace.feed("single");
+        if (!(def.posts().description() instanceof Description.Complex)) {
+            throw new IllegalStateException("The single fixture feed should have a complex description");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workspace.close();
+    }
+
+    @Benchmark
+    public Element complex() {
+        return def.posts().description().makeDescription(site, def, "Post title", workspace.rss());
+    }
+}
@@ -0,0 +1,74 @@
+package com.notenoughmail.rssifier.components;
+
+import com.notenoughmail.rssifier.Fixtures;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluating post definition selectors against sites of various sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectorBenchmark {
+
+    @Param({"blog", "news", "archive"})
+    public String fixture;
+
+    private Fixtures.Workspace workspace;
+    private Document site;
+    private PostDef single, multi;
+
+    @Setup
+    public void setup() throws IOException {
+        workspace = Fixtures.Workspace.create();
+        site = Fixtures.site(fixture);
+        single = workspace.feed("single").posts();
+        multi = workspace.feed("multi").posts();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workspace.close();
+    }
+
+    /**
+     * Every field of a single post definition, as an update looks them up
+     */
+    @Benchmark
+    public void singlePost(Blackhole blackhole) {
+        for (Query query : single.queries()) {
+            blackhole.consume(site.selectFirst(query.evaluator()));
+        }
+    }
+
+    /**
+     * Every field of every post on the site
+     */
+    @Benchmark
+    public void multiPost(Blackhole blackhole) {
+        for (Element scope : site.select(multi.container().evaluator())) {
+            for (Query query : multi.queries()) {
+                if (query != multi.container()) {
+                    blackhole.consume(scope.selectFirst(query.evaluator()));
+                }
+            }
+        }
+    }
+
+    /**
+     * A selector parsed on every use, as was done before selectors were compiled once at load
+     */
+    @Benchmark
+    public Element uncompiled() {
+        return site.selectFirst(single.title().css());
+    }
+}
@@ -0,0 +1,69 @@
+package com.notenoughmail.rssifier.feed;
+
+import com.notenoughmail.rssifier.Fixtures;
+import com.notenoughmail.rssifier.components.FeedDef;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking if posts are new against feeds keeping various numbers of posts
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DedupIndexBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int keep;
+
+    private Fixtures.Workspace workspace;
+    private FeedDef def;
+    private StateStore state;
+    private List<FeedItem> items;
+    private DedupIndex index;
+    private String presentTitle, presentLink;
+
+    @Setup
+    public void setup() throws IOException {
+        workspace = Fixtures.Workspace.create();
+        def = workspace.feed("single");
+        final Path path = workspace.feeds().resolve("bench.xml");
+        Files.writeString(path, Fixtures.feed(keep));
+        items = FeedModel.load(path, Files.readAttributes(path, BasicFileAttributes.class)).items();
+        state = StateStore.load(workspace.feeds().resolve("bench.jsonl"));
+        index = DedupIndex.build(def, items, state, workspace.rss());
+        // The oldest post, the worst case for a linear scan of the feed
+        final FeedItem oldest = items.getLast();
+        presentTitle = oldest.title();
+        presentLink = oldest.link();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workspace.close();
+    }
+
+    @Benchmark
+    public DedupIndex build() throws IOException {
+        return DedupIndex.build(def, items, state, workspace.rss());
+    }
+
+    @Benchmark
+    public boolean present() {
+        return index.isNew(presentTitle, presentLink);
+    }
+
+    @Benchmark
+    public boolean absent() {
+        return index.isNew("A post the feed has never seen", "https://example.org/never-seen/");
+    }
+}
@@ -0,0 +1,89 @@
+package com.notenoughmail.rssifier.feed;
+
+import com.notenoughmail.rssifier.Fixtures;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.ParseSettings;
+import org.jsoup.parser.Parser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading feed files of various sizes, and adding posts to and serializing them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedModelBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    private Fixtures.Workspace workspace;
+    private Path path;
+    private BasicFileAttributes attributes;
+    private FeedModel model;
+    private List<Element> posts;
+
+    @Setup
+    public void setup() throws IOException {
+        workspace = Fixtures.Workspace.create();
+        path = workspace.feeds().resolve("bench.xml");
+        Files.writeString(path, Fixtures.feed(items));
+        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        model = FeedModel.load(path, attributes);
+        // Three new posts, as a typical update would find
+        final Document source = Jsoup.parse(Fixtures.feed(3), "", Parser.xmlParser().settings(ParseSettings.preserveCase));
+        posts = source.getElementsByTag("item");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workspace.close();
+    }
+
+    @Benchmark
+    public FeedModel load() throws IOException {
+        return FeedModel.load(path, attributes);
+    }
+
+    @Benchmark
+    public OutputStream serialize() throws IOException {
+        final OutputStream out = OutputStream.nullOutputStream();
+        model.writeTo(out);
+        return out;
+    }
+
+    /**
+     * Adds posts to a freshly loaded model and serializes it, as an update with new posts does before writing
+     */
+    @Benchmark
+    public OutputStream addAndSerialize(Fresh fresh) throws IOException {
+        fresh.model.addPosts(posts.stream().map(Element::clone).toList(), items);
+        final OutputStream out = OutputStream.nullOutputStream();
+        fresh.model.writeTo(out);
+        return out;
+    }
+
+    @State(Scope.Thread)
+    public static class Fresh {
+
+        FeedModel model;
+
+        @Setup(Level.Invocation)
+        public void load(FeedModelBenchmark benchmark) throws IOException {
+            model = FeedModel.load(benchmark.path, benchmark.attributes);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.notenoughmail.rssifier.fetch;
+
+import com.notenoughmail.rssifier.Fixtures;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing fetched sites of various sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SiteParseBenchmark {
+
+    @Param({"blog", "news", "archive"})
+    public String fixture;
+
+    private String html;
+
+    @Setup
+    public void setup() {
+        html = Fixtures.read(fixture + ".html");
+    }
+
+    @Benchmark
+    public Document parse() {
+        return Jsoup.parse(html, Fixtures.BASE_URL);
+    }
+}
@@ -0,0 +1,212 @@
+package com.notenoughmail.rssifier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the recorded fixture pages on the loopback interface, misbehaving as configured
+ * <p>
+ * {@code /feed/<n>} serves fixture {@code n % fixtures}. Every feed has an {@code ETag} which changes when its page
+ * does, each {@link #nextGeneration() generation} a share of the feeds get a new post at the top of their page.
+ * Which feeds misbehave is decided by their number, so runs are reproducible. Pages are gzipped for clients that accept it
+ */
+final class FixtureServer implements AutoCloseable {
+
+    private static final String MAIN = "<main id=\"primary\" class=\"site-main\">";
+
+    private final Settings settings;
+    private final List<String> fixtures;
+    private final HttpServer server;
+    private final AtomicLong generation = new AtomicLong();
+    private final Map<Integer, byte[]> gzipped = new ConcurrentHashMap<>();
+    // The number of pages and 304s sent to each feed this generation
+    private final Map<Integer, Integer> served = new ConcurrentHashMap<>();
+    final LongAdder requests = new LongAdder(), ok = new LongAdder(), notModified = new LongAdder(), errors = new LongAdder(), bytes = new LongAdder();
+
+    /**
+     * @param latencyMillis    Delay before any response is sent
+     * @param bytesPerSecond   Throughput of each response's body, {@code 0} for unthrottled
+     * @param errorPercent     Percentage of feeds that respond with a 500
+     * @param churnPercent     Percentage of feeds whose page changes each generation
+     * @param slowLorisPercent Percentage of feeds that trickle their body out over {@code slowLorisMillis}
+     * @param conditional      If {@code If-None-Match} is honored with a 304
+     */
+    record Settings(
+            long latencyMillis,
+            long bytesPerSecond,
+            int errorPercent,
+            int churnPercent,
+            int slowLorisPercent,
+            long slowLorisMillis,
+            boolean conditional
+    ) {}
+
+    FixtureServer(Settings settings, List<String> fixtures) throws IOException {
+        this.settings = settings;
+        this.fixtures = fixtures;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/feed/", this::handle);
+        server.start();
+    }
+
+    String url(int feed) {
+        return "http://127.0.0.1:%d/feed/%d".formatted(server.getAddress().getPort(), feed);
+    }
+
+    void nextGeneration() {
+        generation.incrementAndGet();
+        served.clear();
+    }
+
+    /**
+     * @return The number of feeds sent a page or a 304 this generation
+     */
+    int feedsServed() {
+        return served.size();
+    }
+
+    /**
+     * @return The number of feeds sent a page or a 304 more than once this generation, which a single run never does
+     */
+    long feedsServedTwice() {
+        return served.values().stream().filter(count -> count > 1).count();
+    }
+
+    boolean errors(int feed) {
+        return feed % 100 < settings.errorPercent;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.increment();
+            final int feed;
+            try {
+                feed = Integer.parseInt(exchange.getRequestURI().getPath().substring("/feed/".length()));
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            sleep(settings.latencyMillis);
+
+            if (errors(feed)) {
+                errors.increment();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            // Feeds are spread across the percentages from the other end so that erroring and changing feeds do not overlap
+            final long version = 99 - feed % 100 < settings.churnPercent ? generation.get() : 0;
+            final String etag = "\"%d-%d\"".formatted(feed, version);
+            if (settings.conditional && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.increment();
+                served.merge(feed, 1, Integer::sum);
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            final String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            final boolean gzip = accept != null && accept.contains("gzip");
+            final byte[] body = gzip ?
+                    version == 0 ? gzipped.computeIfAbsent(feed % fixtures.size(), fixture -> gzip(fixtures.get(fixture))) : gzip(page(feed, version)) :
+                    page(feed, version).getBytes(StandardCharsets.UTF_8);
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(200, body.length);
+            final boolean slowLoris = feed % 100 >= 50 && feed % 100 < 50 + settings.slowLorisPercent;
+            write(exchange.getResponseBody(), body, slowLoris ? Math.max(1, body.length * 1000L / Math.max(1, settings.slowLorisMillis)) : settings.bytesPerSecond);
+            ok.increment();
+            served.merge(feed, 1, Integer::sum);
+            bytes.add(body.length);
+        } catch (IOException e) {
+            // The client gave up, which is expected of slow responses
+        }
+    }
+
+    private String page(int feed, long version) {
+        final String page = fixtures.get(feed % fixtures.size());
+        if (version == 0) {
+            return page;
+        }
+        final StringBuilder posts = new StringBuilder(MAIN);
+        for (long i = version ; i > 0 ; i--) {
+            posts.append("""
+                    <article class="post type-post"><header class="entry-header">
+                     <h2 class="entry-title"><a href="https://example.org/generated/%1$d/%2$d/" rel="bookmark">Generated post %2$d of feed %1$d</a></h2>
+                     <div class="entry-meta"><time class="entry-date published">2026-01-%3$02d</time> by <span class="author vcard"><a href="https://example.org/author/load/">Load Test</a></span></div>
+                    </header><div class="entry-summary"><p>Generated for generation %2$d.</p></div></article>
+                    """.formatted(feed, i, 1 + i % 28));
+        }
+        return page.replace(MAIN, posts);
+    }
+
+    private static byte[] gzip(String page) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(page.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(OutputStream out, byte[] body, long bytesPerSecond) throws IOException {
+        if (bytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+        // Ten chunks a second, or single bytes if that is slower
+        final int chunk = (int) Math.max(1, bytesPerSecond / 10);
+        final long pause = Math.max(1, chunk * 1000L / bytesPerSecond);
+        for (int offset = 0 ; offset < body.length ; offset += chunk) {
+            out.write(body, offset, Math.min(chunk, body.length - offset));
+            out.flush();
+            sleep(pause);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static String fixture(String name) {
+        try (InputStream in = FixtureServer.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No fixture named " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,257 @@
+package com.notenoughmail.rssifier;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the full Rssifier pipeline against a {@link FixtureServer} with a generated config of many feeds, reporting
+ * run time, peak heap and throughput of each run. No network access is needed
+ * <p>
+ * Run with {@code gradle loadTest -PloadTest="--feeds 5000 --runs 3"}, arguments are:
+ * <ul>
+ *     <li>{@code --feeds <n>} The number of feeds, defaults to {@code 2000}</li>
+ *     <li>{@code --runs <n>} The number of runs, the first fetches every page, later ones see 304s and changed pages, defaults to {@code 2}</li>
+ *     <li>{@code --fixtures <names>} Comma separated fixture pages to serve, defaults to {@code blog,news}</li>
+ *     <li>{@code --concurrency <n>} The {@code max_concurrent_feeds} of the generated config, defaults to {@code 64}</li>
+ *     <li>{@code --host-connections <n>} The {@code host_max_connections} of the generated config, defaults to {@code 64}</li>
+ *     <li>{@code --latency <ms>} Delay before every response, defaults to {@code 20}</li>
+ *     <li>{@code --throughput <bytes/s>} Throughput of each response, {@code 0} for unthrottled, the default</li>
+ *     <li>{@code --errors <percent>} Percentage of feeds that respond with a 500, defaults to {@code 2}</li>
+ *     <li>{@code --churn <percent>} Percentage of feeds whose page gains a post each run, defaults to {@code 10}</li>
+ *     <li>{@code --slow-loris <percent>} Percentage of feeds that trickle their page out slowly, defaults to {@code 0}</li>
+ *     <li>{@code --slow-loris-ms <ms>} How long a slow page takes to send, defaults to {@code 10000}</li>
+ *     <li>{@code --no-conditional} Never respond with a 304</li>
+ *     <li>{@code --shards <n>} Runs Rssifier as {@code n} shard processes started together rather than in this process, peak heap and GCs are then not reported</li>
+ *     <li>{@code --down-shard <i>} With {@code --shards}, only starts shard {@code i} in the first run, later runs wait out its {@code shard_lease} so its feeds are taken over</li>
+ *     <li>{@code --dir <path>} Where to put the config and feeds, defaults to a temporary directory</li>
+ *     <li>{@code --max-seconds <s>} Exit with status {@code 1} if any run takes longer, for use in CI</li>
+ * </ul>
+ * Every run also exits with status {@code 1} if any feed is fetched twice, or, without slow responses, if any feed
+ * which does not error is not fetched, which is how shards are checked to split feeds between them
+ */
+public final class LoadTest {
+
+    // The shortest lease allowed, so a shard left down is taken over as soon as possible
+    private static final Duration SHARD_LEASE = Duration.ofSeconds(15);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final Map<String, String> options = options(args);
+        final int feeds = Integer.parseInt(options.getOrDefault("feeds", "2000"));
+        final int runs = Integer.parseInt(options.getOrDefault("runs", "2"));
+        final int shards = Integer.parseInt(options.getOrDefault("shards", "0"));
+        final int downShard = Integer.parseInt(options.getOrDefault("down-shard", "-1"));
+        final double maxSeconds = Double.parseDouble(options.getOrDefault("max-seconds", "0"));
+        final FixtureServer.Settings settings = new FixtureServer.Settings(
+                Long.parseLong(options.getOrDefault("latency", "20")),
+                Long.parseLong(options.getOrDefault("throughput", "0")),
+                Integer.parseInt(options.getOrDefault("errors", "2")),
+                Integer.parseInt(options.getOrDefault("churn", "10")),
+                Integer.parseInt(options.getOrDefault("slow-loris", "0")),
+                Long.parseLong(options.getOrDefault("slow-loris-ms", "10000")),
+                !options.containsKey("no-conditional")
+        );
+        final List<String> fixtures = Arrays.stream(options.getOrDefault("fixtures", "blog,news").split(","))
+                .map(name -> FixtureServer.fixture(name.trim() + ".html"))
+                .toList();
+        final Path directory = options.containsKey("dir") ? Files.createDirectories(Path.of(options.get("dir"))) : Files.createTempDirectory("rssifier-load");
+
+        boolean failed = false;
+        try (FixtureServer server = new FixtureServer(settings, fixtures)) {
+            Files.writeString(directory.resolve("config.json"), new GsonBuilder().setPrettyPrinting().create().toJson(config(
+                    server,
+                    feeds,
+                    Integer.parseInt(options.getOrDefault("concurrency", "64")),
+                    Integer.parseInt(options.getOrDefault("host-connections", "64")),
+                    shards
+            )));
+            System.out.printf("Serving %d feeds from %d fixtures, working in %s%n", feeds, fixtures.size(), directory);
+            if (shards > 0) {
+                System.out.printf("Running as %d shards, their output is in %s%n", shards, directory.resolve("shard-<index>.log"));
+            }
+            int expected = 0;
+            for (int i = 0 ; i < feeds ; i++) {
+                if (!server.errors(i)) {
+                    expected++;
+                }
+            }
+
+            for (int run = 1 ; run <= runs ; run++) {
+                final long requests = server.requests.sum(), ok = server.ok.sum(), notModified = server.notModified.sum(), errors = server.errors.sum(), bytes = server.bytes.sum();
+                final long gcCount = gcCount(), gcMillis = gcMillis();
+                System.gc();
+                ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+
+                if (run == 2 && downShard >= 0) {
+                    System.out.printf("  Leaving shard %d down, waiting out its lease%n", downShard);
+                    Thread.sleep(SHARD_LEASE.plusSeconds(1));
+                }
+                final long start = System.nanoTime();
+                if (shards > 0) {
+                    failed |= !runShards(directory, shards, run > 1 ? downShard : -1);
+                } else {
+                    // A new instance each run, as each cron invocation of Rssifier would be
+                    new Rssifier(directory).runOnce();
+                }
+                final double seconds = (System.nanoTime() - start) / 1e9;
+
+                final long served = server.bytes.sum() - bytes;
+                if (shards > 0) {
+                    System.out.printf("Run %d: %.2fs, %.1f feeds/s, %.1f MiB/s served%n", run, seconds, feeds / seconds, served / seconds / (1 << 20));
+                } else {
+                    System.out.printf(
+                            "Run %d: %.2fs, %.1f feeds/s, %.1f MiB/s served, peak heap %.1f MiB, %d GCs taking %dms%n",
+                            run,
+                            seconds,
+                            feeds / seconds,
+                            served / seconds / (1 << 20),
+                            peakHeap() / (double) (1 << 20),
+                            gcCount() - gcCount,
+                            gcMillis() - gcMillis
+                    );
+                }
+                System.out.printf(
+                        "  %d requests: %d ok, %d not modified, %d errors, %.1f MiB%n",
+                        server.requests.sum() - requests,
+                        server.ok.sum() - ok,
+                        server.notModified.sum() - notModified,
+                        server.errors.sum() - errors,
+                        served / (double) (1 << 20)
+                );
+                final int fetched = server.feedsServed();
+                final long twice = server.feedsServedTwice();
+                System.out.printf("  %d of %d feeds which do not error fetched, %d more than once%n", fetched, expected, twice);
+                if (twice > 0 || fetched < expected && settings.slowLorisPercent() == 0) {
+                    System.out.printf("  Run %d did not fetch every feed exactly once%n", run);
+                    failed = true;
+                }
+                if (maxSeconds > 0 && seconds > maxSeconds) {
+                    System.out.printf("  Run %d took longer than %.2fs%n", run, maxSeconds);
+                    failed = true;
+                }
+                server.nextGeneration();
+            }
+        }
+        System.out.printf("Per-feed metrics of the last run are in %s%n", directory.resolve("feeds").resolve(shards > 0 ? "Rssifier Report <index>.csv" : "Rssifier Report.csv"));
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs every shard but the down one as its own process in the directory, as each would be run by cron
+     *
+     * @return If every shard exited successfully
+     */
+    private static boolean runShards(Path directory, int shards, int down) throws IOException, InterruptedException {
+        final List<Process> processes = new ArrayList<>();
+        for (int shard = 0 ; shard < shards ; shard++) {
+            if (shard != down) {
+                processes.add(new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-cp", System.getProperty("java.class.path"), Rssifier.class.getName(), "--shard", String.valueOf(shard))
+                        .directory(directory.toFile())
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.appendTo(directory.resolve("shard-%d.log".formatted(shard)).toFile()))
+                        .start());
+            }
+        }
+        boolean succeeded = true;
+        for (Process process : processes) {
+            final int status = process.waitFor();
+            if (status != 0) {
+                System.out.printf("  A shard exited with status %d%n", status);
+                succeeded = false;
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Every other feed lists every post of its page, the rest only the newest
+     */
+    private static JsonObject config(FixtureServer server, int feeds, int concurrency, int hostConnections, int shards) {
+        final JsonObject config = new JsonObject();
+        config.addProperty("max_concurrent_feeds", concurrency);
+        config.addProperty("host_max_connections", hostConnections);
+        config.addProperty("run_report", true);
+        if (shards > 0) {
+            config.addProperty("shards", shards);
+            final JsonObject lease = new JsonObject();
+            lease.addProperty("seconds", SHARD_LEASE.toSeconds());
+            config.add("shard_lease", lease);
+        }
+        final JsonArray feedsJson = new JsonArray();
+        for (int i = 0 ; i < feeds ; i++) {
+            final JsonObject feed = new JsonObject();
+            feed.addProperty("url", server.url(i));
+            feed.addProperty("title", "Load Test Feed " + i);
+            feed.addProperty("file", "feed-%05d".formatted(i));
+            feed.addProperty("description", "Generated by the load test");
+            final JsonObject post = new JsonObject();
+            if (i % 2 == 0) {
+                post.addProperty("base_query", "main > article >");
+                post.addProperty("title", "header > h2.entry-title > a");
+                post.addProperty("permalink", "header > h2.entry-title > a");
+                post.addProperty("publish_date", "header time.published");
+                post.addProperty("author", "header span.author > a");
+                post.addProperty("description", "div.entry-summary > p:first-child");
+                post.addProperty("multi_post", true);
+            } else {
+                post.addProperty("base_query", "main > article:first-of-type");
+                post.addProperty("title", "h2.entry-title > a");
+                post.addProperty("permalink", "h2.entry-title > a");
+                post.addProperty("publish_date", "time.published");
+                post.addProperty("author", "span.author > a");
+                post.addProperty("description", "div.entry-summary");
+            }
+            feed.add("post", post);
+            feedsJson.add(feed);
+        }
+        config.add("feeds", feedsJson);
+        return config;
+    }
+
+    private static Map<String, String> options(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0 ; i < args.length ; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            final String key = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(key, args[++i]);
+            } else {
+                options.put(key, "");
+            }
+        }
+        return options;
+    }
+
+    private static long peakHeap() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+}
@@ -0,0 +1,70 @@
+package com.notenoughmail.rssifier;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Watches the config file for changes, running an action once it has been written to
+ */
+public class ConfigWatcher implements Runnable {
+
+    // Editors tend to write a file in several steps, wait until the file has been quiet for this long before acting
+    private static final long SETTLE_MILLIS = 500;
+
+    private final Path configPath;
+    private final Runnable onChange;
+    private final Rssifier rss;
+
+    private ConfigWatcher(Path configPath, Runnable onChange, Rssifier rss) {
+        this.configPath = configPath;
+        this.onChange = onChange;
+        this.rss = rss;
+    }
+
+    public static void start(Path configPath, Runnable onChange, Rssifier rss) {
+        Thread.ofPlatform()
+                .name("Rssifier config watcher")
+                .daemon()
+                .start(new ConfigWatcher(configPath.toAbsolutePath(), onChange, rss));
+    }
+
+    @Override
+    public void run() {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            configPath.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            while (true) {
+                boolean changed = isConfigEvent(watcher.take());
+                WatchKey key;
+                while ((key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= isConfigEvent(key);
+                }
+                if (changed) {
+                    onChange.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            rss.err("Unable to watch <strong>config.json</strong> for changes, it will not be reloaded", e);
+        }
+    }
+
+    private boolean isConfigEvent(WatchKey key) {
+        boolean found = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path path && path.equals(configPath.getFileName())) {
+                found = true;
+            }
+        }
+        key.reset();
+        return found;
+    }
+}
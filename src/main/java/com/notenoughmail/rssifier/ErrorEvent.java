@@ -0,0 +1,118 @@
+package com.notenoughmail.rssifier;
+
+import com.google.gson.JsonElement;
+import org.jspecify.annotations.Nullable;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * An error, or warning, reported while running
+ * <p>
+ * Events hold what went wrong rather than how it is shown, they are only rendered into an error post once it is made
+ *
+ * @param feed      The title of the feed being processed when the event was reported, null if it was not reported for a feed
+ * @param stage     What was being done when the event was reported
+ * @param message   The event's message, may already contain light formatting
+ * @param json      Json the event is about, such as an invalid part of the config
+ * @param throwable What was thrown, if the event was caused by an exception
+ * @param failure   The selector which found nothing, if the event is about a failed query
+ */
+public record ErrorEvent(
+        @Nullable String feed,
+        Stage stage,
+        Severity severity,
+        String message,
+        @Nullable JsonElement json,
+        @Nullable Throwable throwable,
+        @Nullable QueryFailure failure
+) {
+
+    /**
+     * @return The event formatted for an error post
+     */
+    public String render() {
+        final StringBuilder entry = new StringBuilder();
+        if (stage != Stage.GENERAL) {
+            entry.append('[').append(stage.key()).append("] ");
+        }
+        if (feed != null) {
+            entry.append(RssifierFormatting.i(feed)).append(": ");
+        }
+        if (severity == Severity.WARNING) {
+            entry.append("<span class=\"rssifier-p\">Warning</span>: ");
+        }
+        entry.append(message);
+        if (failure != null) {
+            entry.append(failure.render());
+        }
+        if (json != null) {
+            if (!message.isEmpty()) {
+                entry.append(": ");
+            }
+            entry.append(RssifierFormatting.json(json));
+        }
+        if (throwable != null) {
+            if (!message.isEmpty()) {
+                entry.append(": ");
+            }
+            entry.append("Error encountered:\n");
+            entry.append("<blockquote><samp class=\"rssifier-r\">\n");
+            Rssifier.thr(entry, throwable);
+            entry.append("</samp></blockquote>");
+        }
+        return entry.toString();
+    }
+
+    /**
+     * Events with the same key are considered repeats of each other, throwables are compared by their type and message
+     * as the same failure will rarely throw the same instance twice
+     */
+    Key key() {
+        return new Key(
+                feed,
+                stage,
+                severity,
+                message,
+                json,
+                throwable == null ? null : throwable.getClass(),
+                throwable == null ? null : Objects.toString(throwable.getMessage()),
+                failure == null ? null : failure.key()
+        );
+    }
+
+    record Key(
+            @Nullable String feed,
+            Stage stage,
+            Severity severity,
+            String message,
+            @Nullable JsonElement json,
+            @Nullable Class<?> throwable,
+            @Nullable String throwableMessage,
+            @Nullable QueryFailure failure
+    ) {}
+
+    public enum Stage {
+        /** Outside of any feed, such as while starting up */
+        GENERAL,
+        /** Reading config.json */
+        CONFIG,
+        /** Checking if a feed is due */
+        SCHEDULE,
+        /** Fetching and parsing a feed's site */
+        FETCH,
+        /** Finding posts in a feed's site */
+        EXTRACT,
+        /** Writing a feed or report file */
+        WRITE;
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public enum Severity {
+        WARNING,
+        ERROR
+    }
+}
@@ -0,0 +1,171 @@
+package com.notenoughmail.rssifier;
+
+import com.google.gson.JsonElement;
+import org.jspecify.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe collector for {@link ErrorEvent error events}
+ * <p>
+ * While a feed is being processed its events are added to a buffer owned by that feed, these are merged in config
+ * order once every feed has finished, keeping error posts grouped by feed and stable between runs
+ * <p>
+ * Buffers hold at most {@link #MAX_EVENTS} distinct events, repeats of an event are only counted, and events are only
+ * rendered when the log is {@link #drain() drained}
+ */
+public class ErrorLog {
+
+    public static final int MAX_EVENTS = 100;
+    private static final String STYLE = "<style>.rssifier-p{color:purple;} .rssifier-r{color:red;} .rssifier-g{color:green;} .rssifier-b{color:blue;}</style>";
+
+    private final Buffer errors = new Buffer();
+    private final ThreadLocal<@Nullable Scope> scope = new ThreadLocal<>();
+
+    public void add(ErrorEvent.Severity severity, String message, @Nullable JsonElement json, @Nullable Throwable throwable, @Nullable QueryFailure failure) {
+        final Scope scoped = scope.get();
+        if (scoped != null) {
+            scoped.buffer.add(new ErrorEvent(scoped.feed, scoped.stage, severity, message, json, throwable, failure));
+        } else {
+            errors.add(new ErrorEvent(null, ErrorEvent.Stage.GENERAL, severity, message, json, throwable, failure));
+        }
+    }
+
+    /**
+     * Runs the action with all errors logged on the current thread going to the provided buffer
+     *
+     * @param feed  The title of the feed the action processes, if any
+     * @param stage The stage events are attributed to until the action {@link #stage(ErrorEvent.Stage) moves on}
+     */
+    public void scoped(@Nullable String feed, ErrorEvent.Stage stage, Buffer buffer, Runnable action) {
+        final Scope previous = scope.get();
+        scope.set(new Scope(feed, buffer, stage));
+        try {
+            action.run();
+        } finally {
+            scope.set(previous);
+        }
+    }
+
+    /**
+     * Sets the stage events logged on the current thread are attributed to, does nothing outside a {@link #scoped scope}
+     */
+    public void stage(ErrorEvent.Stage stage) {
+        final Scope scoped = scope.get();
+        if (scoped != null) {
+            scoped.stage = stage;
+        }
+    }
+
+    /**
+     * Adds the buffer's events to the current thread's {@link #scoped scope}, or to the log if there is none
+     */
+    public void merge(Buffer buffer) {
+        final Scope scoped = scope.get();
+        (scoped != null ? scoped.buffer : errors).addAll(buffer);
+    }
+
+    /**
+     * @return Every error logged so far, formatted for an error post, and clears the log
+     */
+    public String drain() {
+        synchronized (errors) {
+            final String drained = toString();
+            errors.clear();
+            return drained;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (errors) {
+            return errors.isEmpty() ? "" : STYLE + errors.render();
+        }
+    }
+
+    /**
+     * A bounded set of events, in the order they were first added
+     */
+    public static final class Buffer {
+
+        private final Map<ErrorEvent.Key, Entry> events = new LinkedHashMap<>();
+        private int dropped;
+
+        public synchronized void add(ErrorEvent event) {
+            add(event, 1);
+        }
+
+        private void add(ErrorEvent event, int count) {
+            final Entry existing = events.get(event.key());
+            if (existing != null) {
+                existing.count += count;
+            } else if (events.size() < MAX_EVENTS) {
+                events.put(event.key(), new Entry(event, count));
+            } else {
+                dropped += count;
+            }
+        }
+
+        synchronized void addAll(Buffer other) {
+            synchronized (other) {
+                other.events.values().forEach(entry -> add(entry.event, entry.count));
+                dropped += other.dropped;
+            }
+        }
+
+        public synchronized boolean isEmpty() {
+            return events.isEmpty() && dropped == 0;
+        }
+
+        synchronized void clear() {
+            events.clear();
+            dropped = 0;
+        }
+
+        synchronized String render() {
+            final StringBuilder builder = new StringBuilder();
+            for (Entry entry : events.values()) {
+                if (!builder.isEmpty()) {
+                    builder.append('\n');
+                }
+                builder.append(entry.event.render());
+                if (entry.count > 1) {
+                    builder.append("\n<i>Repeated %d times</i>".formatted(entry.count));
+                }
+                builder.append("\n<hr>");
+            }
+            if (dropped > 0) {
+                if (!builder.isEmpty()) {
+                    builder.append('\n');
+                }
+                builder.append("<i>%d more errors were not recorded</i>\n<hr>".formatted(dropped));
+            }
+            return builder.toString();
+        }
+    }
+
+    private static final class Entry {
+
+        final ErrorEvent event;
+        int count;
+
+        Entry(ErrorEvent event, int count) {
+            this.event = event;
+            this.count = count;
+        }
+    }
+
+    private static final class Scope {
+
+        final @Nullable String feed;
+        final Buffer buffer;
+        ErrorEvent.Stage stage;
+
+        Scope(@Nullable String feed, Buffer buffer, ErrorEvent.Stage stage) {
+            this.feed = feed;
+            this.buffer = buffer;
+            this.stage = stage;
+        }
+    }
+}
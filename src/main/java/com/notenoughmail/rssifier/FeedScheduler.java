@@ -0,0 +1,129 @@
+package com.notenoughmail.rssifier;
+
+import com.notenoughmail.rssifier.components.FeedDef;
+import org.jspecify.annotations.Nullable;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of when each feed is next due to be queried, for use when Rssifier is run as a daemon
+ */
+public class FeedScheduler {
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparing(Entry::due));
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Set<FeedDef> active = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Duration defaultInterval = Duration.ZERO;
+
+    /**
+     * Sets the feeds which may be scheduled, any scheduled feeds which are not among them are dropped
+     *
+     * @param defaultInterval The time between queries of feeds that do not specify their own {@link FeedDef#timeBetweenQueries()}
+     */
+    public void update(List<FeedDef> feeds, Duration defaultInterval) {
+        lock.lock();
+        try {
+            active.clear();
+            active.addAll(feeds);
+            queue.removeIf(entry -> !active.contains(entry.def()));
+            this.defaultInterval = defaultInterval;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Schedules the feed's next query, if the feed is no longer {@link #update(List, Duration) active} this does nothing
+     *
+     * @param lastQuery When the feed's site was last queried, or null if it never has been
+     * @param failures  The number of times in a row the feed's site could not be fetched
+     * @param now       The current time
+     */
+    public void schedule(FeedDef def, @Nullable LocalDateTime lastQuery, int failures, LocalDateTime now) {
+        lock.lock();
+        try {
+            final LocalDateTime due = nextDue(def, lastQuery, failures, now);
+            if (due != null && active.contains(def)) {
+                queue.add(new Entry(def, due));
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until at least one feed is due
+     *
+     * @return Every feed which is due, these are no longer scheduled and should be {@link #schedule(FeedDef, LocalDateTime, int, LocalDateTime) rescheduled} once queried
+     */
+    public List<FeedDef> awaitDue() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                final Entry next = queue.peek();
+                if (next == null) {
+                    changed.await();
+                    continue;
+                }
+                final LocalDateTime now = LocalDateTime.now();
+                final Duration wait = Duration.between(now, next.due());
+                if (wait.isPositive()) {
+                    changed.awaitNanos(wait.toNanos());
+                    continue;
+                }
+                final List<FeedDef> due = new ArrayList<>();
+                while (!queue.isEmpty() && !queue.peek().due().isAfter(now)) {
+                    due.add(queue.poll().def());
+                }
+                return due;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The earliest time after the feed's interval, {@link #backoff(Duration, int) backed off} by its failures,
+     * has elapsed which falls on one of its {@link FeedDef#daysOfWeek() days of the week}, or null if the feed has no valid days
+     */
+    @Nullable
+    LocalDateTime nextDue(FeedDef def, @Nullable LocalDateTime lastQuery, int failures, LocalDateTime now) {
+        if (def.daysOfWeek().isEmpty()) {
+            return null;
+        }
+        final Duration interval = backoff(def.timeBetweenQueries() == null ? defaultInterval : def.timeBetweenQueries(), failures);
+        LocalDateTime due = lastQuery == null ? now : lastQuery.plus(interval);
+        if (due.isBefore(now)) {
+            due = now;
+        }
+        DayOfWeek day = due.getDayOfWeek();
+        while (!def.daysOfWeek().contains(day)) {
+            due = due.toLocalDate().plusDays(1).atStartOfDay();
+            day = due.getDayOfWeek();
+        }
+        return due;
+    }
+
+    /**
+     * @return The interval doubled for each failure in a row, up to 64 times the interval, so that failing sites are queried less often
+     */
+    static Duration backoff(Duration interval, int failures) {
+        return interval.multipliedBy(1L << Math.clamp(failures, 0, 6));
+    }
+
+    private record Entry(FeedDef def, LocalDateTime due) {}
+}
@@ -0,0 +1,79 @@
+package com.notenoughmail.rssifier;
+
+import com.notenoughmail.rssifier.components.QueryPath;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.jspecify.annotations.Nullable;
+
+import java.util.List;
+
+import static com.notenoughmail.rssifier.RssifierFormatting.*;
+
+/**
+ * A selector which found nothing in a feed's site, kept as what is needed to describe it so that nothing is formatted
+ * or searched until the {@link ErrorEvent event} it belongs to is rendered
+ *
+ * @param what   What the selector was looking for, such as {@code permalink}
+ * @param query  The selector
+ * @param url    The url of the feed's site
+ * @param title  The title of the feed
+ * @param action What was done instead, such as {@code  using site url}, appended as-is
+ * @param site   Where the selector was searched, only kept in debug mode to show how much of the selector does match,
+ *               which holds on to the site until the event is rendered
+ */
+public record QueryFailure(String what, String query, String url, String title, String action, @Nullable Element site) {
+
+    /**
+     * @return The failure without its site, repeats of a failure are the same query failing on the same feed
+     */
+    QueryFailure key() {
+        return site == null ? this : new QueryFailure(what, query, url, title, action, null);
+    }
+
+    String render() {
+        final StringBuilder builder = new StringBuilder("Could not find %s with query %s in site %s (%s)%s".formatted(what, b(query), RssifierFormatting.url(url), i(title), action));
+        if (site == null) {
+            return builder.toString();
+        }
+        builder.append("\n\nClipping query until an element is found:\n");
+
+        final QueryPath path = QueryPath.parse(query);
+        if (path == null) {
+            builder.append("Query %s is a group of selectors and cannot be clipped\n".formatted(b(query)));
+            return builder.toString();
+        }
+        // Each step only searches what the step before it found, so the deepest matching prefix is found in one pass
+        final List<List<Element>> matches = path.walk(site);
+        int matched = 0;
+        while (matched < matches.size() && !matches.get(matched).isEmpty()) {
+            matched++;
+        }
+        for (int count = path.steps().size() - 1 ; count > matched ; count--) {
+            builder.append("Nothing found with query %s\n".formatted(b(path.prefix(count))));
+        }
+        if (matched > 0) {
+            final Element search = matches.get(matched - 1).getFirst();
+            builder.append("<span class=\"rssifier-p\">Found %s element with query %s</span>\n\n".formatted(describeElement(search), b(path.prefix(matched))));
+            builder.append("Direct children elements:\n<blockquote>");
+            final Elements children = search.children();
+            if (children.isEmpty()) {
+                builder.append("None!");
+            } else {
+                children.forEach(elm -> builder.append(describeElement(elm)).append(" fully qualified selector: <b>").append(elm.cssSelector()).append("</b>\n"));
+            }
+            builder.append("</blockquote>");
+        }
+        return builder.toString();
+    }
+
+    private static String describeElement(Element element) {
+        String elmDesc = element.tagName();
+        if (!element.id().isEmpty()) {
+            elmDesc += "#" + element.id();
+        }
+        if (!element.className().isEmpty()) {
+            elmDesc += "." + element.className().replace(' ', '.');
+        }
+        return u(i(elmDesc));
+    }
+}
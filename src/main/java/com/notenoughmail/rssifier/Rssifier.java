@@ -1,43 +1,94 @@
 package com.notenoughmail.rssifier;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.notenoughmail.rssifier.components.Config;
+import com.notenoughmail.rssifier.components.ConfigSnapshot;
 import com.notenoughmail.rssifier.components.FeedDef;
 import com.notenoughmail.rssifier.components.PostDef;
-import org.jsoup.Jsoup;
+import com.notenoughmail.rssifier.components.Query;
+import com.notenoughmail.rssifier.feed.DedupIndex;
+import com.notenoughmail.rssifier.feed.FeedCache;
+import com.notenoughmail.rssifier.feed.FeedModel;
+import com.notenoughmail.rssifier.feed.FeedWriter;
+import com.notenoughmail.rssifier.feed.StateStore;
+import com.notenoughmail.rssifier.fetch.CircuitBreaker;
+import com.notenoughmail.rssifier.fetch.FetchMeta;
+import com.notenoughmail.rssifier.fetch.Fetcher;
+import com.notenoughmail.rssifier.fetch.HostScheduler;
+import com.notenoughmail.rssifier.fetch.Sentinel;
+import com.notenoughmail.rssifier.metrics.FeedMetrics;
+import com.notenoughmail.rssifier.metrics.RunReport;
+import com.notenoughmail.rssifier.serve.FeedServer;
+import com.notenoughmail.rssifier.shard.Shard;
+import org.jsoup.HttpStatusException;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.parser.ParseSettings;
 import org.jsoup.parser.Parser;
-import org.jsoup.select.Elements;
 import org.jspecify.annotations.Nullable;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 import static com.notenoughmail.rssifier.RssifierFormatting.*;
 
 public class Rssifier {
 
-    private final StringBuilder errors = new StringBuilder();
+    private final ErrorLog errors = new ErrorLog();
+    private final HostScheduler hosts = new HostScheduler();
+    private final FeedCache feedCache = new FeedCache();
     private final boolean setup;
     // These fields should be treated as final, despite not being marked as such
     // They are not final-ed due to the misery that is working with final fields and try-catch blocks
     private Path feedsPath, statusPath;
-    private final Config config;
+    private StateStore state;
+    private Fetcher fetcher;
+    private CircuitBreaker breaker;
+    private final Path configPath;
+    // Only replaced when running as a daemon and the config file is successfully reloaded
+    private volatile Config config;
+    // Only started when running as a daemon with a serve port
+    private volatile @Nullable FeedServer server;
+    // Only present when running as one of several shards, once it has joined
+    private final @Nullable Integer shardIndex;
+    private @Nullable Shard shard;
+
+    /**
+     * @param directory The directory containing {@code config.json} and the {@code feeds} directory
+     */
+    Rssifier(Path directory) {
+        this(directory, null);
+    }
 
-    private Rssifier() {
-        final String userDir = System.getProperty("user.dir");
+    /**
+     * @param shardIndex The shard to run as, if running as one of several processes sharing the directory
+     */
+    Rssifier(Path directory, @Nullable Integer shardIndex) {
+        configPath = directory.resolve("config.json");
+        this.shardIndex = shardIndex;
         try {
-            feedsPath = Files.createDirectories(Path.of(userDir, "feeds"));
+            feedsPath = Files.createDirectories(directory.resolve("feeds"));
             statusPath = feedsPath.resolve("Rssifier Status.xml");
+            state = StateStore.load(shardIndex == null ? feedsPath.resolve("Rssifier State.jsonl") : Shard.statePath(feedsPath, shardIndex));
+            fetcher = new Fetcher(state);
+            breaker = new CircuitBreaker(state);
             if (!statusPath.toFile().exists()) {
                 initFeed(
                         "Rssifier Status",
@@ -55,20 +106,11 @@ public class Rssifier {
             config = Config.onError();
             return;
         }
-        final File configPath = Path.of(userDir, "config.json").toFile();
-        if (configPath.exists()) {
+        if (configPath.toFile().exists()) {
             boolean valid;
             Config conf;
             try {
-                Gson gson = new Gson();
-                conf = Config.parse(
-                        gson.fromJson(
-                                new FileReader(configPath),
-                                JsonObject.class
-                        ),
-                        feedsPath,
-                        this
-                );
+                conf = readConfig();
                 valid = true;
             } catch (Exception e) {
                 err("Could not read feed config file", e);
@@ -84,85 +126,591 @@ public class Rssifier {
         }
     }
 
-    public static void main(String[] args) {
-        final Rssifier instance = new Rssifier();
-        if (instance.setup) {
-            instance.handleFeeds();
+    /**
+     * Claims the shard's lease and takes in the state of feeds other shards have handled since this shard last ran
+     *
+     * @return If Rssifier may run
+     */
+    private boolean joinShard() {
+        if (shardIndex == null) {
+            if (config.shards() > 1) {
+                err("<strong>config.json</strong> splits feeds into %s shards, Rssifier must be started with %s".formatted(b(String.valueOf(config.shards())), i("--shard &lt;index&gt;")));
+                return false;
+            }
+            return true;
+        }
+        if (shardIndex < 0 || shardIndex >= config.shards()) {
+            err("Shard %s does not exist, <strong>config.json</strong> splits feeds into %s shards numbered from %s".formatted(b(String.valueOf(shardIndex)), b(String.valueOf(config.shards())), b("0")));
+            return false;
+        }
+        try {
+            shard = Shard.join(feedsPath, shardIndex, config.shards(), config.shardLease());
+            for (Path other : shard.otherStates()) {
+                state.merge(other);
+            }
+            return true;
+        } catch (IllegalStateException e) {
+            err(e.getMessage());
+            return false;
+        } catch (Exception e) {
+            err("Unable to join as shard %s".formatted(b(String.valueOf(shardIndex))), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return The feeds this process should handle, all of them unless running as a shard
+     */
+    private List<FeedDef> owned(List<FeedDef> feeds) {
+        if (shard == null) {
+            return feeds;
+        }
+        for (int down : shard.refresh()) {
+            try {
+                state.merge(Shard.statePath(feedsPath, down));
+            } catch (Exception e) {
+                err("Unable to read the state of shard %s, its feeds will be handled as if new".formatted(b(String.valueOf(down))), e);
+            }
         }
-        instance.handleAnyErrors();
+        return feeds.stream().filter(def -> shard.owns(def.file())).toList();
     }
 
-    private void handleFeeds() {
+    /**
+     * Loads the config from its {@link ConfigSnapshot snapshot} if {@code config.json} has not changed since it was
+     * made, otherwise parses {@code config.json} and, if it has no errors, saves a new snapshot
+     */
+    private Config readConfig() throws IOException {
+        final byte[] json = Files.readAllBytes(configPath);
+        final String key = ConfigSnapshot.key(json);
+        final Path snapshotPath = feedsPath.resolve("Rssifier Config.snapshot");
+        final Config snapshot = ConfigSnapshot.read(snapshotPath, key, feedsPath);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        final ErrorLog.Buffer parseErrors = new ErrorLog.Buffer();
+        final Config[] parsed = new Config[1];
+        errors.scoped(null, ErrorEvent.Stage.CONFIG, parseErrors, () -> parsed[0] = Config.parse(
+                new Gson().fromJson(
+                        new String(json, StandardCharsets.UTF_8),
+                        JsonObject.class
+                ),
+                feedsPath,
+                this
+        ));
+        if (parseErrors.isEmpty()) {
+            try {
+                ConfigSnapshot.write(snapshotPath, key, parsed[0], feedsPath);
+            } catch (Exception e) {
+                err("Unable to save a snapshot of <strong>config.json</strong>, it will be parsed again next run", e);
+            }
+        } else {
+            errors.merge(parseErrors);
+        }
+        return parsed[0];
+    }
+
+    /**
+     * Re-reads the config file, feeds which are unchanged keep their existing definitions and schedule while changed
+     * and new feeds are scheduled as if they were just loaded. If the new config has any errors, they are reported and
+     * the current config is kept
+     */
+    private void reloadConfig(FeedScheduler scheduler) {
+        final ErrorLog.Buffer reloadErrors = new ErrorLog.Buffer();
+        final Config[] reloaded = new Config[1];
+        // The reloaded config's selectors are shared between its feeds from scratch
+        Query.forgetCompiled();
+        errors.scoped(null, ErrorEvent.Stage.CONFIG, reloadErrors, () -> {
+            try {
+                reloaded[0] = readConfig();
+            } catch (Exception e) {
+                err("Could not read feed config file", e);
+            }
+        });
+        if (reloaded[0] == null || !reloadErrors.isEmpty()) {
+            err("Errors reloading <strong>config.json</strong>, the previous config will continue to be used");
+            errors.merge(reloadErrors);
+            handleAnyErrors();
+            return;
+        }
+
+        final Map<Path, FeedDef> previous = new HashMap<>();
+        config.feeds().forEach(def -> previous.put(def.file(), def));
+        final List<FeedDef> added = new ArrayList<>();
+        final List<FeedDef> feeds = reloaded[0].feeds().stream().map(def -> {
+            final FeedDef old = previous.get(def.file());
+            if (def.equals(old)) {
+                return old;
+            }
+            added.add(def);
+            return def;
+        }).toList();
+
+        config = reloaded[0].withFeeds(feeds);
+        scheduler.update(feeds, config.daemonInterval());
+        if (server != null) {
+            server.retain(servedFiles());
+            added.forEach(def -> publish(def.file()));
+        }
         final LocalDateTime now = LocalDateTime.now();
-        final DayOfWeek today = now.getDayOfWeek();
+        for (FeedDef def : added) {
+            scheduler.schedule(def, lastQuery(def), failures(def), now);
+        }
+        System.out.printf("Reloaded config.json, %d new or changed feeds of %d%n", added.size(), feeds.size());
+        handleAnyErrors();
+    }
+
+    public static void main(String[] args) {
+        final List<String> arguments = List.of(args);
+        final Rssifier instance = new Rssifier(Path.of(System.getProperty("user.dir")), shardArgument(arguments));
+        if (arguments.contains("--check")) {
+            instance.check();
+            return;
+        }
+        if (instance.setup && arguments.contains("--daemon")) {
+            instance.runDaemon();
+            return;
+        }
+        instance.runOnce();
+    }
+
+    /**
+     * @return The index following {@code --shard}, -1 if it is not a number, or null if there is none
+     */
+    @Nullable
+    private static Integer shardArgument(List<String> arguments) {
+        final int flag = arguments.indexOf("--shard");
+        if (flag < 0) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(arguments.get(flag + 1));
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Compiles every selector of the config and prints any errors rather than posting them, so a config can be checked,
+     * and its snapshot saved, without querying any sites
+     */
+    private void check() {
+        if (setup) {
+            for (FeedDef def : config.feeds()) {
+                try {
+                    def.posts().queries().forEach(Query::evaluator);
+                } catch (Exception e) {
+                    err("Invalid selector in %s post definition".formatted(i(def.title())), e);
+                }
+            }
+        }
+        final String report = errors.drain();
+        if (!setup || !report.isEmpty()) {
+            System.out.println(report);
+            System.exit(1);
+        }
+        System.out.printf("config.json is valid, %d feeds%n", config.feeds().size());
+    }
+
+    /**
+     * Queries every feed that is due, then posts any errors
+     */
+    void runOnce() {
+        if (setup && joinShard()) {
+            handleFeeds(owned(config.feeds()), true);
+            heartbeat();
+        }
+        handleAnyErrors();
+    }
+
+    private void heartbeat() {
+        if (shard != null) {
+            try {
+                shard.heartbeat();
+            } catch (Exception e) {
+                err("Unable to renew the lease of shard %s, its feeds may be taken over by other shards".formatted(b(String.valueOf(shard.index()))), e);
+            }
+        }
+    }
+
+    /**
+     * Keeps the process alive, querying each feed's site whenever it becomes due
+     */
+    private void runDaemon() {
+        if (!joinShard()) {
+            handleAnyErrors();
+            return;
+        }
+        final FeedScheduler scheduler = new FeedScheduler();
+        final LocalDateTime start = LocalDateTime.now();
+        scheduler.update(config.feeds(), config.daemonInterval());
         for (FeedDef def : config.feeds()) {
+            scheduler.schedule(def, lastQuery(def), failures(def), start);
+        }
+        ConfigWatcher.start(configPath, () -> reloadConfig(scheduler), this);
+        if (shard != null) {
+            shard.keepAlive(this);
+        }
+        if (config.servePort() > 0) {
+            startServer();
+        }
+        handleAnyErrors();
+        try {
+            while (true) {
+                final List<FeedDef> due = scheduler.awaitDue();
+                final LocalDateTime now = LocalDateTime.now();
+                // Feeds owned by other shards stay scheduled, so they are picked up if their shard goes down
+                final List<FeedDef> owned = owned(due);
+                if (!owned.isEmpty()) {
+                    handleFeeds(owned, false);
+                }
+                for (FeedDef def : due) {
+                    scheduler.schedule(def, now, failures(def), now);
+                }
+                handleAnyErrors();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startServer() {
+        try {
+            server = FeedServer.start(config.serveAddress(), config.servePort());
+        } catch (IOException e) {
+            err("Unable to serve feeds at %s port %s".formatted(i(config.serveAddress()), b(String.valueOf(config.servePort()))), e);
+            return;
+        }
+        servedFiles().forEach(this::publish);
+        System.out.printf("Serving feeds at http://%s:%d/%n", config.serveAddress(), server.port());
+    }
+
+    private List<Path> servedFiles() {
+        final List<Path> files = new ArrayList<>();
+        config.feeds().stream().filter(def -> shard == null || shard.owns(def.file())).forEach(def -> files.add(def.file()));
+        files.add(statusPath);
+        return files;
+    }
+
+    /**
+     * Has the server, if any, serve the file's current content
+     */
+    private void publish(Path file) {
+        final FeedServer serving = server;
+        if (serving != null) {
             try {
-                final Path feedLocation = feedsPath.resolve(def.file());
-                final Document feed = Jsoup.parse(feedLocation, null, "", Parser.xmlParser().settings(ParseSettings.preserveCase));
+                serving.publish(file);
+            } catch (Exception e) {
+                err("Unable to serve %s".formatted(i(file.getFileName().toString())), e);
+            }
+        }
+    }
 
-                if (def.daysOfWeek().contains(today) && (def.timeBetweenQueries() == null || durationHasElapsed(def.timeBetweenQueries(), feed, now))) {
-                    // Before timeStamp replacement so that the time stamp is not updated if there is an issue opening the site
-                    final Document site = Jsoup.connect(def.url()).get();
+    /**
+     * Has the server, if any, serve the bytes just written to the file
+     */
+    private void publish(Path file, byte[] written) {
+        final FeedServer serving = server;
+        if (serving != null) {
+            try {
+                serving.publish(file, written);
+            } catch (Exception e) {
+                err("Unable to serve %s".formatted(i(file.getFileName().toString())), e);
+            }
+        }
+    }
 
-                    if (def.timeBetweenQueries() != null) {
-                        feed.select("timeStamp").remove();
-                        feed.getElementsByTag("rss").getFirst().appendChild(new Element("timeStamp").appendText(nowDateString()));
+    /**
+     * @param checkSchedule If each feed's {@link FeedDef#daysOfWeek() days of the week} and {@link FeedDef#timeBetweenQueries() time between queries}
+     *                      should be checked before querying its site, the daemon does this itself
+     */
+    private void handleFeeds(List<FeedDef> feeds, boolean checkSchedule) {
+        final LocalDateTime now = LocalDateTime.now();
+        final DayOfWeek today = now.getDayOfWeek();
+        final ErrorLog.Buffer[] feedErrors = new ErrorLog.Buffer[feeds.size()];
+        final FeedMetrics[] metrics = new FeedMetrics[feeds.size()];
+        final Semaphore permits = new Semaphore(config.concurrency());
+        final RunReport report = new RunReport();
+        // Feeds on the same page are handled by a single task, which fetches and parses the page once for all of them
+        final Map<String, List<Integer>> pages = new LinkedHashMap<>();
+        for (int i = 0 ; i < feedErrors.length ; i++) {
+            feedErrors[i] = new ErrorLog.Buffer();
+            pages.computeIfAbsent(Fetcher.pageOf(feeds.get(i).url()), page -> new ArrayList<>()).add(i);
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (List<Integer> page : pages.values()) {
+                executor.execute(() -> {
+                    final List<FeedRun> due = new ArrayList<>();
+                    for (int index : page) {
+                        final FeedDef def = feeds.get(index);
+                        final FeedRun run = new FeedRun(def, metrics[index] = new FeedMetrics(def), feedErrors[index]);
+                        errors.scoped(def.title(), ErrorEvent.Stage.SCHEDULE, run.errors(), () -> {
+                            if (isDue(run, now, today, checkSchedule)) {
+                                due.add(run);
+                            }
+                        });
                     }
-
-                    final PostDef siteInfo = def.posts();
-                    final Element title = site.selectFirst(siteInfo.title());
-                    if (title == null) {
-                        couldNotFind(siteInfo.title(), "title", null, def, site);
-                        continue;
+                    if (!due.isEmpty()) {
+                        handlePage(due, permits);
                     }
+                });
+            }
+        }
+        // Merge in config order so the error post does not depend on which feed finished first
+        for (ErrorLog.Buffer feedErr : feedErrors) {
+            errors.merge(feedErr);
+        }
+        final Map<String, HostScheduler.Stats> hostStats = hosts.stats();
+        if (config.debug()) {
+            hostStats.forEach((host, stats) -> System.out.printf("%s: %s%n", host, stats));
+            final long saved = Arrays.stream(metrics).filter(FeedMetrics::shared).count();
+            if (saved > 0) {
+                System.out.printf("%d fetches saved by feeds sharing a page%n", saved);
+            }
+        }
+        if (config.runReport() || config.prometheus()) {
+            report.finish(List.of(metrics), hostStats);
+            try {
+                report.write(feedsPath, config.runReport(), config.prometheus(), shard == null ? null : shard.index());
+            } catch (Exception e) {
+                err("Unable to write run report", e);
+            }
+        }
+    }
 
-                    final String postTitle = title.wholeText().replace('\n', ' ').trim();
-                    final String postLink = postLink(def, siteInfo, site);
-                    final Element channel = feed.getElementsByTag("channel").getFirst();
-                    final Elements items = channel.getElementsByTag("item");
-
-                    if (isPostNew(items, postTitle, postLink, def)) {
-                        final String postAuth = postAuth(def, siteInfo, site);
-
-                        final Element post = new Element("item", Parser.NamespaceXml);
-                        post.insertChildren(-1,
-                                new Element("title").appendText(postTitle),
-                                new Element("pubDate").appendText(postDate(def ,siteInfo, site)),
-                                siteInfo.description().makeDescription(site, def, postTitle, this),
-                                new Element("link").appendText("%s?utm_source=rss".formatted(postLink))
-                        );
-
-                        if (def.guid())
-                            post.insertChildren(-1, new Element("guid").appendText(postLink));
-                        if (!postAuth.isEmpty()) {
-                            post.insertChildren(-1, new Element("author").appendText(postAuth));
-                        }
-
-                        items.addFirst(post);
-                        while (items.size() > def.keep()) {
-                            items.removeLast();
-                        }
+    /**
+     * A feed being handled in a run
+     */
+    private record FeedRun(FeedDef def, FeedMetrics metrics, ErrorLog.Buffer errors) {}
 
-                        final Element processedChannel = new Element("channel", Parser.NamespaceXml);
-                        copyToNewChannel(processedChannel, channel, items);
-                        feed.getElementsByTag("channel").set(0, processedChannel);
+    /**
+     * @return If the feed should be queried, feeds which are not are finished
+     */
+    private boolean isDue(FeedRun run, LocalDateTime now, DayOfWeek today, boolean checkSchedule) {
+        final FeedDef def = run.def();
+        try {
+            if (checkSchedule && !def.daysOfWeek().contains(today)) {
+                run.metrics().finish();
+                return false;
+            }
+            // Read from the state store so that skipped feeds never have their file loaded
+            final boolean due = !checkSchedule || def.timeBetweenQueries() == null || durationHasElapsed(FeedScheduler.backoff(def.timeBetweenQueries(), state.failures(def)), state.lastQuery(def), now);
+            run.metrics().lap(FeedMetrics.Stage.SCHEDULE, run.metrics().start());
+            if (!due) {
+                run.metrics().finish();
+            }
+            return due;
+        } catch (Exception exception) {
+            failed(run, exception);
+            run.metrics().finish();
+            return false;
+        }
+    }
 
-                        final FileWriter fileWriter = new FileWriter(feedLocation.toFile());
-                        final PrintWriter print = new PrintWriter(fileWriter);
-                        print.print(feed.outerHtml());
-                        print.close();
+    /**
+     * Fetches a page once for all of its due feeds, then updates each feed from it
+     *
+     * @param runs The page's due feeds in config order, the page is fetched with the first's settings and any error
+     *             fetching it that is not about a single feed is reported for the first
+     */
+    private void handlePage(List<FeedRun> runs, Semaphore permits) {
+        final FeedRun lead = runs.getFirst();
+        errors.scoped(lead.def().title(), ErrorEvent.Stage.FETCH, lead.errors(), () -> {
+            try {
+                final String host = HostScheduler.hostOf(lead.def().url());
+                if (!breaker.allow(host, config.breakerFailures(), config.breakerCooldown(), LocalDateTime.now())) {
+                    runs.forEach(run -> run.metrics().outcome(FeedMetrics.Outcome.CIRCUIT_OPEN));
+                    return;
+                }
+                // Wait on the host before taking a global permit so feeds for other hosts are not held up by politeness delays
+                final HostScheduler.Slot slot = hosts.acquire(lead.def());
+                permits.acquireUninterruptibly();
+                try {
+                    for (FeedRun run : runs) {
+                        run.metrics().lap(FeedMetrics.Stage.WAIT, run.metrics().start() + run.metrics().nanos(FeedMetrics.Stage.SCHEDULE));
+                        run.metrics().shared(run != lead);
+                    }
+                    final LocalDateTime queried = LocalDateTime.now();
+                    final List<Fetcher.Result> results;
+                    try {
+                        results = fetchPage(runs, host, slot, queried);
+                    } catch (IOException e) {
+                        for (FeedRun run : runs) {
+                            errors.scoped(run.def().title(), ErrorEvent.Stage.FETCH, run.errors(), () -> failed(run, e));
+                        }
+                        return;
                     }
+                    for (int i = 0 ; i < runs.size() ; i++) {
+                        final FeedRun run = runs.get(i);
+                        final Fetcher.Result result = results.get(i);
+                        errors.scoped(run.def().title(), ErrorEvent.Stage.EXTRACT, run.errors(), () -> {
+                            try {
+                                processFeed(run.def(), result, queried, run.metrics());
+                            } catch (Exception exception) {
+                                failed(run, exception);
+                            }
+                        });
+                    }
+                } finally {
+                    permits.release();
                 }
             } catch (Exception exception) {
-                err("Error creating/updating %s feed".formatted(i(def.title())), exception);
+                for (FeedRun run : runs) {
+                    errors.scoped(run.def().title(), ErrorEvent.Stage.FETCH, run.errors(), () -> failed(run, exception));
+                }
+            } finally {
+                runs.forEach(run -> run.metrics().finish());
+            }
+        });
+    }
+
+    private void failed(FeedRun run, Exception exception) {
+        run.metrics().outcome(FeedMetrics.Outcome.FAILED);
+        // The cached feed may have been partially updated
+        feedCache.invalidate(run.def().file());
+        err("Error creating/updating %s feed".formatted(i(run.def().title())), exception);
+    }
+
+    private List<Fetcher.Result> fetchPage(List<FeedRun> runs, String host, HostScheduler.Slot slot, LocalDateTime queried) throws IOException {
+        final List<FeedDef> defs = runs.stream().map(FeedRun::def).toList();
+        final List<Fetcher.Result> results;
+        try (slot) {
+            results = fetcher.fetch(defs, runs.getFirst().metrics());
+        } catch (IOException e) {
+            // Failed queries still count as queries, with each failure in a row doubling the time until the next one
+            for (FeedDef def : defs) {
+                state.update(def, json -> {
+                    json.addProperty("last_query", DateTimeFormatter.ISO_DATE_TIME.format(queried));
+                    json.addProperty("failures", (json.has("failures") ? json.get("failures").getAsInt() : 0) + 1);
+                });
+            }
+            final LocalDateTime failed = LocalDateTime.now();
+            if (Fetcher.isHostFailure(e)) {
+                if (breaker.failure(host, config.breakerFailures(), config.breakerCooldown(), failed)) {
+                    warn("%s has failed %d times in a row, its feeds will be skipped until %s".formatted(b(host), config.breakerFailures(), DateTimeFormatter.ISO_DATE_TIME.format(failed.plus(config.breakerCooldown()))));
+                }
+            } else if (e instanceof HttpStatusException) {
+                // The host answered, only the page is broken
+                breaker.success(host);
             }
+            throw e;
+        }
+        for (FeedDef def : defs) {
+            state.update(def, json -> {
+                json.addProperty("last_query", DateTimeFormatter.ISO_DATE_TIME.format(queried));
+                json.remove("failures");
+            });
+        }
+        breaker.success(host);
+        return results;
+    }
+
+    private void processFeed(FeedDef def, Fetcher.Result result, LocalDateTime queried, FeedMetrics metrics) throws IOException {
+        if (result instanceof Fetcher.Result.Fetched(Document site, FetchMeta meta, byte[] body)) {
+            if (!metrics.shared()) {
+                metrics.nodes(site);
+            }
+            final long time = System.nanoTime();
+            final FeedModel feed = feedCache.get(def.file());
+            metrics.lap(FeedMetrics.Stage.LOAD, time);
+            updateFeed(def, feed, site, metrics);
+            // The site's latest post is now in the feed, whether or not it was new
+            final FetchMeta processed = meta.withSentinel(def.sentinel() && body != null ? Sentinel.of(def.posts(), site, body) : null);
+            // Only once the site has been processed, otherwise a failed update would never be retried
+            state.update(def, json -> {
+                processed.writeTo(json);
+                json.addProperty("last_success", DateTimeFormatter.ISO_DATE_TIME.format(queried));
+            });
+        } else if (result instanceof Fetcher.Result.Unparsed(FetchMeta meta)) {
+            metrics.outcome(FeedMetrics.Outcome.PARSE_SKIPPED);
+            state.update(def, json -> {
+                meta.writeTo(json);
+                json.addProperty("last_success", DateTimeFormatter.ISO_DATE_TIME.format(queried));
+            });
+        } else {
+            metrics.outcome(FeedMetrics.Outcome.NOT_MODIFIED);
+        }
+    }
+
+    private void updateFeed(FeedDef def, FeedModel feed, Document site, FeedMetrics metrics) throws IOException {
+        long time = System.nanoTime();
+        final PostDef siteInfo = def.posts();
+        final List<Element> scopes;
+        if (siteInfo.container() == null) {
+            scopes = List.of(site);
+        } else {
+            scopes = site.select(siteInfo.container().evaluator());
+            if (scopes.isEmpty()) {
+                couldNotFind(siteInfo.container().css(), "posts", null, def, site);
+                metrics.newPosts(0);
+                return;
+            }
+        }
+
+        time = metrics.lap(FeedMetrics.Stage.EXTRACT, time);
+        final DedupIndex index = feed.index(def, state, this);
+        time = metrics.lap(FeedMetrics.Stage.DEDUP, time);
+        final List<Element> posts = new ArrayList<>();
+        for (Element scope : scopes) {
+            final Element title = scope.selectFirst(siteInfo.title().evaluator());
+            if (title == null) {
+                couldNotFind(siteInfo.title().css(), "title", null, def, scope);
+                time = metrics.lap(FeedMetrics.Stage.EXTRACT, time);
+                continue;
+            }
+
+            final String postTitle = title.wholeText().replace('\n', ' ').trim();
+            final String postLink = postLink(def, siteInfo, scope);
+            time = metrics.lap(FeedMetrics.Stage.EXTRACT, time);
+
+            // Posts are added to the index as they are found, a site may list the same post more than once
+            final boolean isNew = index.isNew(postTitle, postLink);
+            if (isNew) {
+                index.add(postTitle, postLink);
+            }
+            time = metrics.lap(FeedMetrics.Stage.DEDUP, time);
+            if (isNew) {
+                posts.add(makePost(def, siteInfo, scope, postTitle, postLink));
+                time = metrics.lap(FeedMetrics.Stage.EXTRACT, time);
+            }
+        }
+
+        metrics.newPosts(posts.size());
+        if (!posts.isEmpty()) {
+            // Posts are kept in the order the site lists them
+            feed.addPosts(posts, def.keep());
+            metrics.lap(FeedMetrics.Stage.SERIALIZE, time);
+            errors.stage(ErrorEvent.Stage.WRITE);
+            final byte[] written = feed.write(metrics);
+            if (written != null) {
+                publish(def.file(), written);
+            }
+        }
+    }
+
+    private Element makePost(FeedDef def, PostDef siteInfo, Element site, String postTitle, String postLink) {
+        final String postAuth = postAuth(def, siteInfo, site);
+
+        final Element post = new Element("item", Parser.NamespaceXml);
+        post.insertChildren(-1,
+                new Element("title").appendText(postTitle),
+                new Element("pubDate").appendText(postDate(def ,siteInfo, site)),
+                siteInfo.description().makeDescription(site, def, postTitle, this),
+                new Element("link").appendText("%s?utm_source=rss".formatted(postLink))
+        );
+
+        if (def.guid())
+            post.insertChildren(-1, new Element("guid").appendText(postLink));
+        if (!postAuth.isEmpty()) {
+            post.insertChildren(-1, new Element("author").appendText(postAuth));
         }
+        return post;
     }
 
-    private String postLink(FeedDef def, PostDef siteInfo, Document site) {
-        final Element elm = site.selectFirst(siteInfo.permalink());
+    private String postLink(FeedDef def, PostDef siteInfo, Element site) {
+        final Element elm = site.selectFirst(siteInfo.permalink().evaluator());
         if (elm == null) {
-            couldNotFind(siteInfo.permalink(), "permalink", "site url", def, site);
+            couldNotFind(siteInfo.permalink().css(), "permalink", "site url", def, site);
             return def.url();
         }
         final String link = elm.attr("abs:href").trim();
@@ -173,170 +721,94 @@ public class Rssifier {
         return link;
     }
 
-    private String postDate(FeedDef def, PostDef siteInfo, Document site) {
+    private String postDate(FeedDef def, PostDef siteInfo, Element site) {
         if (siteInfo.publishDate() == null) return nowDateString();
-        final Element elm = site.selectFirst(siteInfo.publishDate());
+        final Element elm = site.selectFirst(siteInfo.publishDate().evaluator());
         if (elm == null) {
-            couldNotFind(siteInfo.publishDate(), "publish date", "current time", def, site);
+            couldNotFind(siteInfo.publishDate().css(), "publish date", "current time", def, site);
             return nowDateString();
         }
         return elm.text().trim();
     }
 
-    private String postAuth(FeedDef def, PostDef siteInfo, Document site) {
+    private String postAuth(FeedDef def, PostDef siteInfo, Element site) {
         if (siteInfo.author() == null) return "";
         if (siteInfo.multiAuthor()) {
-            final String authors = site.selectStream(siteInfo.author())
+            final String authors = site.selectStream(siteInfo.author().evaluator())
                     .map(elm -> elm.text().trim())
                     .filter(s -> !s.isBlank())
                     .collect(Collectors.joining(" & "));
             if (authors.isEmpty()) {
-                couldNotFind(siteInfo.author(), "post authors", null, def, site);
+                couldNotFind(siteInfo.author().css(), "post authors", null, def, site);
                 return "";
             }
             return authors;
         } else {
-            final Element elm = site.selectFirst(siteInfo.author());
+            final Element elm = site.selectFirst(siteInfo.author().evaluator());
             if (elm == null) {
-                couldNotFind(siteInfo.author(), "post author", null, def, site);
+                couldNotFind(siteInfo.author().css(), "post author", null, def, site);
                 return "";
             }
             return elm.text().trim();
         }
     }
 
-    private boolean isPostNew(Elements items, String title, String link, FeedDef def) {
-        for (Element item : items) {
-            final Elements titleElements = item.getElementsByTag("title");
-            if (!titleElements.isEmpty()) {
-                if (titleElements.getFirst().text().trim().equals(title)) {
-                    if (def.verifyUniqueness()) {
-                        final Elements linkElements = item.getElementsByTag("link");
-                        if (!linkElements.isEmpty() && linkElements.getFirst().text().trim().equals(link)) {
-                            return false;
-                        }
-                    } else {
-                        return false;
-                    }
-                }
-            } else {
-                err("Existing %s post %s did not have a 'title' element?".formatted(
-                        i(def.title()),
-                        html(item)
-                ));
-            }
-        }
-        return true;
-    }
-
-    public void couldNotFind(String query, String what, @Nullable String using, FeedDef def, Document site) {
-        using = (using == null ? "" : " using " + using);
-        queryFailed("Could not find %s with query %s in site %s (%s)".formatted(what, b(query), url(def.url()), i(def.title())) + using, site, query);
+    public void couldNotFind(String query, String what, @Nullable String using, FeedDef def, Element site) {
+        queryFailed(query, what, using == null ? "" : " using " + using, def, site);
     }
 
-    public void queryFailed(String msg, Document doc, String query) {
-        if (!config.debug()) {
-            err(msg);
-            return;
-        }
-
-        query = query.replaceAll(" +", " ").replaceAll("\\(> ", "(>*");
-
-        final StringBuilder msgBuilder = new StringBuilder(msg);
-        msgBuilder.append("\n\nClipping query until an element is found:\n");
-
-        int index = query.lastIndexOf(' ');
-        while (index > 0) {
-            query = query.substring(0, index).trim();
-            if (query.charAt(index - 1) == '>') {
-                query = query.substring(0, index - 1).trim();
-            }
-
-            try {
-                final Element search = doc.selectFirst(query.replaceAll("\\(>\\*", "(> "));
-                if (search == null) {
-                    msgBuilder.append("Nothing found with query %s\n".formatted(b(query.replaceAll("\\(>\\*", "(> "))));
-                } else {
-                    msgBuilder.append("<span class=\"rssifier-p\">Found %s element with query %s</span>\n\n".formatted(describeElement(search), b(query.replaceAll("\\(>\\*", "(> "))));
-                    msgBuilder.append("Direct children elements:\n<blockquote>");
-                    final Elements children = search.children();
-                    if (children.isEmpty()) {
-                        msgBuilder.append("None!");
-                    } else {
-                        children.forEach(elm -> msgBuilder.append(describeElement(elm)).append(" fully qualified selector: <b>").append(elm.cssSelector()).append("</b>\n"));
-                    }
-                    msgBuilder.append("</blockquote>");
-                    break;
-                }
-            } catch (Exception ignored) {
-                // Space splits may cause issues with :contains(hello world) selectors, simply skip over 'internal' spaces
-                // Maybe this should clip to last '(' to prevent multiple exceptions with multiple 'internal' spaces
-            }
-
-            index = query.lastIndexOf(' ');
-        }
-
-        err(msgBuilder.toString());
+    /**
+     * @param action What was done instead, appended to the message as-is
+     */
+    public void queryFailed(String query, String what, String action, FeedDef def, Element site) {
+        // Only what is needed to describe the failure is kept, it is formatted once the error post is made
+        errors.add(ErrorEvent.Severity.ERROR, "", null, null, new QueryFailure(what, query, def.url(), def.title(), action, config.debug() ? site : null));
     }
 
-    private static String describeElement(Element element) {
-        String elmDesc = element.tagName();
-        if (!element.id().isEmpty()) {
-            elmDesc += "#" + element.id();
-        }
-        if (!element.className().isEmpty()) {
-            elmDesc += "." + element.className().replace(' ', '.');
-        }
-        return u(i(elmDesc));
-    }
-
-    private void handleAnyErrors() {
-        if (!errors.isEmpty()) {
+    private synchronized void handleAnyErrors() {
+        final String report = errors.drain();
+        if (!report.isEmpty()) {
             System.out.println("Errors encountered! Attempting to make error post...");
             try {
-                final Document status = Jsoup.parse(statusPath, null, "", Parser.xmlParser().settings(ParseSettings.preserveCase));
-                final Element channel = status.getElementsByTag("channel").getFirst();
-                final Elements items = channel.getElementsByTag("item");
-                items.addFirst(errorPost());
-                while (items.size() > config.statusKeep()) {
-                    items.removeLast();
+                if (shard == null) {
+                    postErrors(report);
+                } else {
+                    // Every shard posts to the same status feed, each post must be made on top of the others
+                    Shard.locked(feedsPath.resolve("Rssifier Status.lock"), () -> {
+                        feedCache.invalidate(statusPath);
+                        postErrors(report);
+                    });
                 }
-                final Element processedChannel = new Element("channel", Parser.NamespaceXml);
-                copyToNewChannel(processedChannel, channel, items);
-                status.getElementsByTag("channel").set(0, processedChannel);
-
-                final FileWriter fileWriter = new FileWriter(statusPath.toFile());
-                final PrintWriter print = new PrintWriter(fileWriter);
-                print.println(status);
-                print.close();
                 System.out.println("Successfully made error post");
             } catch (Exception e) {
                 err("Unable to create error post!", e);
-                System.out.println(errors);
+                System.out.println(report);
+                System.out.println(errors.drain());
             }
         }
     }
 
-    private Element errorPost() {
+    private void postErrors(String report) throws IOException {
+        final FeedModel status = feedCache.get(statusPath);
+        status.addPosts(List.of(errorPost(report)), config.statusKeep());
+        final byte[] written = status.write();
+        if (written != null) {
+            publish(statusPath, written);
+        }
+    }
+
+    private Element errorPost(String report) {
         final Element post = new Element("item", Parser.NamespaceXml);
-        errors.append("<hr>");
         post.insertChildren(
                 -1,
                 new Element("title").appendText("Errors while running Rssifier"),
                 new Element("pubDate").appendText(nowDateString()),
                 new Element("author").appendText("Rssifier"),
-                new Element("description").appendText(errors.toString().replace("\n", "<br>\n"))
+                new Element("description").appendText((report + "<hr>").replace("\n", "<br>\n"))
         );
         return post;
     }
 
-    private static void copyToNewChannel(Element newChannel, Element oldChannel, Elements items) {
-        final Elements children = oldChannel.children();
-        children.removeIf(elm -> elm.tagName().equals("item"));
-        newChannel.insertChildren(-1, children);
-        newChannel.insertChildren(-1, items);
-    }
-
     private static String nowDateString() {
         return DateTimeFormatter.ISO_DATE_TIME.format(LocalDateTime.now());
     }
@@ -345,49 +817,61 @@ public class Rssifier {
         err(null, err);
     }
 
+    /**
+     * @param err The error, either a {@link Throwable}, {@link JsonElement json} the error is about, or a message
+     */
     public void err(@Nullable String prefix, Object err) {
-        if (!errors.isEmpty()) {
-            errors.append('\n');
-        } else {
-            errors.append("<style>.rssifier-p{color:purple;} .rssifier-r{color:red;} .rssifier-g{color:green;} .rssifier-b{color:blue;}</style>");
-        }
-        if (prefix != null) {
-            errors.append(prefix);
-            errors.append(": ");
+        switch (err) {
+            case Throwable thr -> errors.add(ErrorEvent.Severity.ERROR, prefix == null ? "" : prefix, null, thr, null);
+            case JsonElement json -> errors.add(ErrorEvent.Severity.ERROR, prefix == null ? "" : prefix, json, null, null);
+            default -> errors.add(ErrorEvent.Severity.ERROR, prefix == null ? String.valueOf(err) : prefix + ": " + err, null, null, null);
         }
-        if (err instanceof Throwable thr) {
-            errors.append("Error encountered:\n");
-            errors.append("<blockquote><samp class=\"rssifier-r\">\n");
-            thr(thr);
-            errors.append("</samp></blockquote>");
-        } else {
-            errors.append(err);
-        }
-        errors.append("\n<hr>");
     }
 
-    public void thr(Throwable thr) {
-        errors.append(thr.getClass().getCanonicalName());
-        errors.append('\n');
-        errors.append(thr.getMessage());
-        errors.append("\n<div style=\"margin-left: 2em\">");
+    /**
+     * Reports something which does not stop a feed from being updated, but is likely not what was intended
+     */
+    public void warn(String message) {
+        errors.add(ErrorEvent.Severity.WARNING, message, null, null, null);
+    }
+
+    public static void thr(StringBuilder builder, Throwable thr) {
+        builder.append(thr.getClass().getCanonicalName());
+        builder.append('\n');
+        builder.append(thr.getMessage());
+        builder.append("\n<div style=\"margin-left: 2em\">");
         for (StackTraceElement stack : thr.getStackTrace()) {
-            errors.append("\n\tat ");
-            errors.append(sanitizeForHtml("%s".formatted(stack)));
+            builder.append("\n\tat ");
+            builder.append(sanitizeForHtml("%s".formatted(stack)));
         }
-        errors.append("\n</div>");
+        builder.append("\n</div>");
         if (thr.getCause() != null && thr.getCause() != thr) {
-            errors.append("\nCaused by:\n");
-            thr(thr.getCause());
+            builder.append("\nCaused by:\n");
+            thr(builder, thr.getCause());
         }
     }
 
-    static boolean durationHasElapsed(Duration duration, Document feed, LocalDateTime now) {
-        final Element timeStamp = feed.selectFirst("timeStamp");
+    static boolean durationHasElapsed(Duration duration, @Nullable LocalDateTime timeStamp, LocalDateTime now) {
+        return timeStamp == null || timeStamp.plus(duration).isBefore(now);
+    }
+
+    @Nullable
+    private LocalDateTime lastQuery(FeedDef def) {
+        try {
+            return state.lastQuery(def);
+        } catch (Exception e) {
+            err("Unable to read the time stamp of %s feed".formatted(i(def.title())), e);
+            return null;
+        }
+    }
 
-        return timeStamp == null || LocalDateTime.from(
-                DateTimeFormatter.ISO_DATE_TIME.parse(timeStamp.ownText())
-        ).plus(duration).isBefore(now);
+    private int failures(FeedDef def) {
+        try {
+            return state.failures(def);
+        } catch (Exception e) {
+            err("Unable to read the failures of %s feed".formatted(i(def.title())), e);
+            return 0;
+        }
     }
 
     public void initFeed(String name, String title, String description, @Nullable String link) throws IOException {
@@ -423,14 +907,10 @@ public class Rssifier {
         feedBuilder.append(
                 """
                     </channel>
-                    <timeStamp>1970-01-01T00:00:00</timeStamp>
                 </rss>
                 """
         );
 
-        final FileWriter writer = new FileWriter(feedPath.toFile());
-        final PrintWriter print = new PrintWriter(writer);
-        print.println(feedBuilder);
-        print.close();
+        FeedWriter.write(feedPath, feedBuilder.append(System.lineSeparator()).toString());
     }
 }
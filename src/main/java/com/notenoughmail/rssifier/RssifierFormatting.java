@@ -11,8 +11,12 @@ import java.util.function.UnaryOperator;
 public class RssifierFormatting {
 
     public static String html(Element element) {
+        return html(element.outerHtml());
+    }
+
+    public static String html(String markup) {
         return "\n<blockquote>%s</blockquote>\n".formatted(
-                sanitizeForHtml(element.outerHtml().replace("><", ">\n<"))
+                sanitizeForHtml(markup.replace("><", ">\n<"))
                         .replace("&lt;", "<span class=\"rssifier-b\">&lt;")
                         .replace("&gt;", "&gt;</span>")
         );
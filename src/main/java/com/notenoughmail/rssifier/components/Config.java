@@ -4,6 +4,7 @@ import com.google.gson.JsonObject;
 import com.notenoughmail.rssifier.Rssifier;
 
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 
@@ -13,10 +14,20 @@ public record Config(
         int keep,
         int statusKeep,
         boolean debug,
+        int concurrency,
+        Duration daemonInterval,
+        boolean runReport,
+        boolean prometheus,
+        int breakerFailures,
+        Duration breakerCooldown,
+        int servePort,
+        String serveAddress,
+        int shards,
+        Duration shardLease,
         List<FeedDef> feeds
 ) {
     public static Config parse(JsonObject json, Path feedsPath, Rssifier rss) {
-        final int keep; // has to be final in order to be passed into the lambda
+        final int keep;
         int statusKeep = 5;
         if (json.has("feed_post_keep")) {
             keep = json.get("feed_post_keep").getAsInt();
@@ -27,17 +38,45 @@ public record Config(
             statusKeep = json.get("status_post_keep").getAsInt();
         }
         final boolean debug = json.has("debug") && json.get("debug").getAsBoolean();
+        final int concurrency = json.has("max_concurrent_feeds") ? Math.max(1, json.get("max_concurrent_feeds").getAsInt()) : 4;
+        final Duration daemonInterval = json.has("daemon_interval") ? FeedDef.orElse(FeedDef.parseDuration(json.get("daemon_interval"), "config", rss), Duration.ofHours(12)) : Duration.ofHours(12);
+        final boolean runReport = json.has("run_report") && json.get("run_report").getAsBoolean();
+        final boolean prometheus = json.has("prometheus_metrics") && json.get("prometheus_metrics").getAsBoolean();
+        final int breakerFailures = json.has("circuit_breaker_failures") ? Math.max(0, json.get("circuit_breaker_failures").getAsInt()) : 5;
+        final Duration breakerCooldown = json.has("circuit_breaker_cooldown") ? FeedDef.orElse(FeedDef.parseDuration(json.get("circuit_breaker_cooldown"), "config", rss), Duration.ofMinutes(30)) : Duration.ofMinutes(30);
+        final int servePort = json.has("serve_port") ? Math.clamp(json.get("serve_port").getAsInt(), 0, 65535) : 0;
+        final String serveAddress = json.has("serve_address") ? json.get("serve_address").getAsString() : "127.0.0.1";
+        final int shards = json.has("shards") ? Math.max(1, json.get("shards").getAsInt()) : 1;
+        // Leases are renewed several times per lease, very short leases would have shards doing little else
+        final Duration shardLease = json.has("shard_lease") ? max(FeedDef.orElse(FeedDef.parseDuration(json.get("shard_lease"), "config", rss), Duration.ofMinutes(10)), Duration.ofSeconds(15)) : Duration.ofMinutes(10);
+        final FeedDef.Defaults defaults = new FeedDef.Defaults(
+                keep,
+                json.has("host_max_connections") ? Math.max(1, json.get("host_max_connections").getAsInt()) : 2,
+                json.has("host_request_gap") ? FeedDef.orElse(FeedDef.parseDuration(json.get("host_request_gap"), "config", rss), Duration.ZERO) : Duration.ZERO,
+                FeedDef.parseBodySize(json.has("max_body_size") ? json.get("max_body_size").getAsInt() : 2048),
+                json.has("connect_timeout") ? FeedDef.orElse(FeedDef.parseDuration(json.get("connect_timeout"), "config", rss), Duration.ofSeconds(10)) : Duration.ofSeconds(10),
+                json.has("read_timeout") ? FeedDef.orElse(FeedDef.parseDuration(json.get("read_timeout"), "config", rss), Duration.ofSeconds(30)) : Duration.ofSeconds(30),
+                json.has("retries") ? Math.max(0, json.get("retries").getAsInt()) : 2
+        );
         final List<FeedDef> feeds = json.get("feeds").getAsJsonArray().asList().stream().map(elm -> {
             if (elm.isJsonObject()) {
-                return FeedDef.parse(elm.getAsJsonObject(), keep, feedsPath, rss);
+                return FeedDef.parse(elm.getAsJsonObject(), defaults, feedsPath, rss);
             }
             rss.err("Error parsing feed definition %smust be a json object".formatted(json(elm)));
             return null;
         }).filter(Objects::nonNull).toList();
-        return new Config(keep, statusKeep, debug, feeds);
+        return new Config(keep, statusKeep, debug, concurrency, daemonInterval, runReport, prometheus, breakerFailures, breakerCooldown, servePort, serveAddress, shards, shardLease, feeds);
+    }
+
+    public Config withFeeds(List<FeedDef> feeds) {
+        return new Config(keep, statusKeep, debug, concurrency, daemonInterval, runReport, prometheus, breakerFailures, breakerCooldown, servePort, serveAddress, shards, shardLease, feeds);
     }
 
     public static Config onError() {
-        return new Config(10, 5, true, List.of());
+        return new Config(10, 5, true, 1, Duration.ofHours(12), false, false, 5, Duration.ofMinutes(30), 0, "127.0.0.1", 1, Duration.ofMinutes(10), List.of());
+    }
+
+    private static Duration max(Duration duration, Duration min) {
+        return duration.compareTo(min) < 0 ? min : duration;
     }
 }
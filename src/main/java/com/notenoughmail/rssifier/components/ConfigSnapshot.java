@@ -0,0 +1,262 @@
+package com.notenoughmail.rssifier.components;
+
+import com.notenoughmail.rssifier.feed.FeedWriter;
+import com.notenoughmail.rssifier.fetch.FetchMeta;
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A compact binary copy of a validated {@link Config}, so that short runs do not have to parse {@code config.json},
+ * compile every selector, and check every feed's file each time they start
+ * <p>
+ * A snapshot is only used if it was made from the same {@code config.json}, by the same version of Rssifier, and every
+ * feed's file still exists. Selectors are stored as written and {@link Query#ofValid(String) compiled} when first used,
+ * so only the selectors of feeds which are due are ever compiled
+ */
+public final class ConfigSnapshot {
+
+    // Increased whenever the layout changes
+    private static final int FORMAT = 2;
+
+    private ConfigSnapshot() {}
+
+    /**
+     * @param json The bytes of {@code config.json}
+     * @return The key a snapshot of the config is stored under
+     */
+    public static String key(byte[] json) {
+        return "%d:%s:%s".formatted(FORMAT, Objects.toString(ConfigSnapshot.class.getPackage().getImplementationVersion(), "dev"), FetchMeta.hash(json));
+    }
+
+    /**
+     * @return The snapshot's config, or null if there is no usable snapshot under the key
+     */
+    @Nullable
+    public static Config read(Path path, String key, Path feedsPath) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (!in.readUTF().equals(key)) {
+                return null;
+            }
+            final Config config = readConfig(in, feedsPath);
+            return filesExist(config, feedsPath) ? config : null;
+        } catch (IOException | RuntimeException e) {
+            // Either there is no snapshot yet or it cannot be read, in which case it is replaced once the config has been parsed
+            return null;
+        }
+    }
+
+    public static void write(Path path, String key, Config config, Path feedsPath) throws IOException {
+        FeedWriter.writeRaw(path, stream -> {
+            final DataOutputStream out = new DataOutputStream(stream);
+            out.writeUTF(key);
+            writeConfig(out, config, feedsPath);
+            out.flush();
+        }, null);
+    }
+
+    /**
+     * Feeds whose file is missing are created while parsing the config, a snapshot cannot be used until they have been
+     */
+    private static boolean filesExist(Config config, Path feedsPath) throws IOException {
+        final Set<Path> files = new HashSet<>();
+        try (DirectoryStream<Path> listing = Files.newDirectoryStream(feedsPath, "*.xml")) {
+            listing.forEach(files::add);
+        }
+        for (FeedDef def : config.feeds()) {
+            if (!files.contains(def.file()) && !Files.exists(def.file())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeConfig(DataOutputStream out, Config config, Path feedsPath) throws IOException {
+        out.writeInt(config.keep());
+        out.writeInt(config.statusKeep());
+        out.writeBoolean(config.debug());
+        out.writeInt(config.concurrency());
+        writeDuration(out, config.daemonInterval());
+        out.writeBoolean(config.runReport());
+        out.writeBoolean(config.prometheus());
+        out.writeInt(config.breakerFailures());
+        writeDuration(out, config.breakerCooldown());
+        out.writeInt(config.servePort());
+        writeString(out, config.serveAddress());
+        out.writeInt(config.shards());
+        writeDuration(out, config.shardLease());
+        out.writeInt(config.feeds().size());
+        for (FeedDef def : config.feeds()) {
+            writeString(out, def.url());
+            writeString(out, def.title());
+            writeString(out, feedsPath.relativize(def.file()).toString());
+            out.writeInt(def.keep());
+            out.writeBoolean(def.verifyUniqueness());
+            out.writeBoolean(def.guid());
+            out.writeBoolean(def.timeBetweenQueries() != null);
+            if (def.timeBetweenQueries() != null) {
+                writeDuration(out, def.timeBetweenQueries());
+            }
+            int days = 0;
+            for (DayOfWeek day : def.daysOfWeek()) {
+                days |= 1 << day.ordinal();
+            }
+            out.writeByte(days);
+            out.writeInt(def.hostConnections());
+            writeDuration(out, def.hostGap());
+            out.writeBoolean(def.streamParse());
+            out.writeBoolean(def.sentinel());
+            out.writeInt(def.maxBodySize());
+            writeDuration(out, def.connectTimeout());
+            writeDuration(out, def.readTimeout());
+            out.writeInt(def.retries());
+            writePosts(out, def.posts());
+        }
+    }
+
+    private static Config readConfig(DataInputStream in, Path feedsPath) throws IOException {
+        final int keep = in.readInt();
+        final int statusKeep = in.readInt();
+        final boolean debug = in.readBoolean();
+        final int concurrency = in.readInt();
+        final Duration daemonInterval = readDuration(in);
+        final boolean runReport = in.readBoolean();
+        final boolean prometheus = in.readBoolean();
+        final int breakerFailures = in.readInt();
+        final Duration breakerCooldown = readDuration(in);
+        final int servePort = in.readInt();
+        final String serveAddress = readString(in);
+        final int shards = in.readInt();
+        final Duration shardLease = readDuration(in);
+        final int count = in.readInt();
+        final List<FeedDef> feeds = new ArrayList<>(count);
+        for (int i = 0 ; i < count ; i++) {
+            final String url = readString(in);
+            final String title = readString(in);
+            final Path file = feedsPath.resolve(readString(in));
+            final int feedKeep = in.readInt();
+            final boolean verifyUniqueness = in.readBoolean();
+            final boolean guid = in.readBoolean();
+            final Duration timeBetweenQueries = in.readBoolean() ? readDuration(in) : null;
+            final int dayBits = in.readUnsignedByte();
+            final EnumSet<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if ((dayBits & 1 << day.ordinal()) != 0) {
+                    days.add(day);
+                }
+            }
+            feeds.add(new FeedDef(
+                    url,
+                    title,
+                    file,
+                    feedKeep,
+                    verifyUniqueness,
+                    guid,
+                    timeBetweenQueries,
+                    days,
+                    in.readInt(),
+                    readDuration(in),
+                    in.readBoolean(),
+                    in.readBoolean(),
+                    in.readInt(),
+                    readDuration(in),
+                    readDuration(in),
+                    in.readInt(),
+                    readPosts(in)
+            ));
+        }
+        return new Config(keep, statusKeep, debug, concurrency, daemonInterval, runReport, prometheus, breakerFailures, breakerCooldown, servePort, serveAddress, shards, shardLease, List.copyOf(feeds));
+    }
+
+    private static void writePosts(DataOutputStream out, PostDef posts) throws IOException {
+        writeQuery(out, posts.title());
+        writeQuery(out, posts.publishDate());
+        writeQuery(out, posts.permalink());
+        switch (posts.description()) {
+            case Description.Absent ignored -> out.writeByte(0);
+            case Description.Simple simple -> {
+                out.writeByte(1);
+                writeQuery(out, simple.query());
+            }
+            case Description.Complex complex -> {
+                out.writeByte(2);
+                out.writeInt(complex.queries().size());
+                for (Query query : complex.queries()) {
+                    writeQuery(out, query);
+                }
+            }
+        }
+        writeQuery(out, posts.author());
+        out.writeBoolean(posts.multiAuthor());
+        writeQuery(out, posts.container());
+    }
+
+    private static PostDef readPosts(DataInputStream in) throws IOException {
+        final Query title = Objects.requireNonNull(readQuery(in));
+        final Query publishDate = readQuery(in);
+        final Query permalink = Objects.requireNonNull(readQuery(in));
+        final Description description = switch (in.readByte()) {
+            case 0 -> Description.Absent.INSTANCE;
+            case 1 -> new Description.Simple(Objects.requireNonNull(readQuery(in)));
+            case 2 -> {
+                final int count = in.readInt();
+                final List<Query> queries = new ArrayList<>(count);
+                for (int i = 0 ; i < count ; i++) {
+                    queries.add(Objects.requireNonNull(readQuery(in)));
+                }
+                yield new Description.Complex(List.copyOf(queries));
+            }
+            default -> throw new IOException("Unknown description type");
+        };
+        return new PostDef(title, publishDate, permalink, description, readQuery(in), in.readBoolean(), readQuery(in));
+    }
+
+    private static void writeQuery(DataOutputStream out, @Nullable Query query) throws IOException {
+        out.writeBoolean(query != null);
+        if (query != null) {
+            writeString(out, query.css());
+        }
+    }
+
+    @Nullable
+    private static Query readQuery(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Query.ofValid(readString(in)) : null;
+    }
+
+    private static void writeDuration(DataOutputStream out, Duration duration) throws IOException {
+        out.writeLong(duration.getSeconds());
+        out.writeInt(duration.getNano());
+    }
+
+    private static Duration readDuration(DataInputStream in) throws IOException {
+        return Duration.ofSeconds(in.readLong(), in.readInt());
+    }
+
+    // DataOutput#writeUTF is limited to 64 kilobytes, which a long selector or description could pass
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -5,17 +5,20 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.notenoughmail.rssifier.Rssifier;
-import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jspecify.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static com.notenoughmail.rssifier.RssifierFormatting.*;
 
 public sealed interface Description permits Description.Absent, Description.Simple, Description.Complex {
 
-    Element makeDescription(Document site, FeedDef def, String postTitle, Rssifier rssifier);
+    Element makeDescription(Element site, FeedDef def, String postTitle, Rssifier rssifier);
+
+    List<Query> queries();
 
     static Element base() {
         return new Element("description");
@@ -24,13 +27,13 @@ public sealed interface Description permits Description.Absent, Description.Simp
     static Description parse(JsonObject json, @Nullable String baseQuery, String title, Rssifier rss) {
         return switch (json.get("description")) {
             case null -> Absent.INSTANCE;
-            case JsonPrimitive prim -> new Simple(PostDef.appendBaseQuery(baseQuery, prim));
+            case JsonPrimitive prim -> new Simple(PostDef.query(baseQuery, prim));
             case JsonArray array -> {
-                final String[] queries = new String[array.size()];
-                for (int i = 0 ; i < queries.length ; i++) {
-                    queries[i] = PostDef.appendBaseQuery(baseQuery, array.get(i));
+                final List<Query> queries = new ArrayList<>(array.size());
+                for (JsonElement query : array) {
+                    queries.add(PostDef.query(baseQuery, query));
                 }
-                yield new Complex(queries);
+                yield new Complex(List.copyOf(queries));
             }
             case JsonElement desc -> {
                 rss.err("Description definition for %s was an unexpected value, should be absent, a string, or an array of strings, was %s (%s)".formatted(i(title), json(desc), b(desc.getClass().getSimpleName())));
@@ -43,36 +46,46 @@ public sealed interface Description permits Description.Absent, Description.Simp
         INSTANCE;
 
         @Override
-        public Element makeDescription(Document site, FeedDef def, String postTitle, Rssifier rss) {
+        public Element makeDescription(Element site, FeedDef def, String postTitle, Rssifier rss) {
             return base().appendText(postTitle);
         }
+
+        @Override
+        public List<Query> queries() {
+            return List.of();
+        }
     }
 
-    record Simple(String query) implements Description {
+    record Simple(Query query) implements Description {
 
         @Override
-        public Element makeDescription(Document site, FeedDef def, String postTitle, Rssifier rss) {
+        public Element makeDescription(Element site, FeedDef def, String postTitle, Rssifier rss) {
             final Element desc = base();
-            final String descText = Optional.ofNullable(site.selectFirst(query))
+            final String descText = Optional.ofNullable(site.selectFirst(query.evaluator()))
                     .map(elm -> elm.wholeText().trim())
                     .orElseGet(() -> {
-                            rss.couldNotFind(query, "post description", "post title", def, site);
+                            rss.couldNotFind(query.css(), "post description", "post title", def, site);
                             return postTitle;
                     });
             desc.appendText(descText);
             return desc;
         }
+
+        @Override
+        public List<Query> queries() {
+            return List.of(query);
+        }
     }
 
-    record Complex(String[] queries) implements Description {
+    record Complex(List<Query> queries) implements Description {
 
         @Override
-        public Element makeDescription(Document site, FeedDef def, String postTitle, Rssifier rss) {
+        public Element makeDescription(Element site, FeedDef def, String postTitle, Rssifier rss) {
             final Element desc = base();
-            for (String query : queries) {
-                final Element elm = site.selectFirst(query);
+            for (Query query : queries) {
+                final Element elm = site.selectFirst(query.evaluator());
                 if (elm == null) {
-                    rss.queryFailed("Could not find description component with query %s in site %s (%s), skipping".formatted(b(query), url(def.url()), i(def.title())), site, query);
+                    rss.queryFailed(query.css(), "description component", ", skipping", def, site);
                     continue;
                 }
                 desc.appendText(elm.outerHtml());
@@ -27,10 +27,18 @@ public record FeedDef(
         boolean guid,
         @Nullable Duration timeBetweenQueries,
         EnumSet<DayOfWeek> daysOfWeek,
+        int hostConnections,
+        Duration hostGap,
+        boolean streamParse,
+        boolean sentinel,
+        int maxBodySize,
+        Duration connectTimeout,
+        Duration readTimeout,
+        int retries,
         PostDef posts
 ) {
     @Nullable
-    static FeedDef parse(JsonObject json, int defaultKeep, Path feedsPath, Rssifier rss) {
+    static FeedDef parse(JsonObject json, Defaults defaults, Path feedsPath, Rssifier rss) {
         if (
                 json.has("url") &&
                 json.has("file") &&
@@ -56,15 +64,34 @@ public record FeedDef(
             if (json.has("post") && json.get("post").isJsonObject()) {
                 final PostDef posts = PostDef.parse(json.getAsJsonObject("post"), title, rss);
                 if (posts != null) {
+                    boolean streamParse = json.has("stream_parse") && json.get("stream_parse").getAsBoolean();
+                    // Both need every matching element, which a parse stopped at the first match would not have reached
+                    if (streamParse && (posts.multiPost() || posts.multiAuthor())) {
+                        rss.warn("<b>stream_parse</b> cannot be used by %s as it has <b>%s</b> enabled, the site will be fully parsed".formatted(i(title), posts.multiPost() ? "multi_post" : "multi_author"));
+                        streamParse = false;
+                    }
+                    boolean sentinel = json.has("sentinel") && json.get("sentinel").getAsBoolean();
+                    if (sentinel && (posts.multiPost() || streamParse)) {
+                        rss.warn("<b>sentinel</b> cannot be used by %s as it has <b>%s</b> enabled, the site will always be parsed".formatted(i(title), posts.multiPost() ? "multi_post" : "stream_parse"));
+                        sentinel = false;
+                    }
                     return new FeedDef(
                             json.get("url").getAsString(),
                             title,
                             feedLocation,
-                            json.has("keep_posts") ? json.get("keep_posts").getAsInt() : defaultKeep,
+                            json.has("keep_posts") ? json.get("keep_posts").getAsInt() : defaults.keep(),
                             json.has("verify_uniqueness") && json.get("verify_uniqueness").getAsBoolean(),
                             !json.has("guid") || json.get("guid").getAsBoolean(),
                             json.has("time_between_queries") ? parseDuration(json.get("time_between_queries"), title, rss) : null,
                             json.has("days_of_week") ? parseDaysOfWeek(json.get("days_of_week"), title, rss) : EnumSet.allOf(DayOfWeek.class),
+                            json.has("host_max_connections") ? Math.max(1, json.get("host_max_connections").getAsInt()) : defaults.hostConnections(),
+                            json.has("host_request_gap") ? orElse(parseDuration(json.get("host_request_gap"), title, rss), defaults.hostGap()) : defaults.hostGap(),
+                            streamParse,
+                            sentinel,
+                            json.has("max_body_size") ? parseBodySize(json.get("max_body_size").getAsInt()) : defaults.maxBodySize(),
+                            json.has("connect_timeout") ? orElse(parseDuration(json.get("connect_timeout"), title, rss), defaults.connectTimeout()) : defaults.connectTimeout(),
+                            json.has("read_timeout") ? orElse(parseDuration(json.get("read_timeout"), title, rss), defaults.readTimeout()) : defaults.readTimeout(),
+                            json.has("retries") ? Math.max(0, json.get("retries").getAsInt()) : defaults.retries(),
                             posts
                     );
                 }
@@ -98,13 +125,16 @@ public record FeedDef(
                 if (minutes) {
                     out += (Math.abs(obj.get("minutes").getAsInt()) + "M");
                 }
+                if (obj.has("seconds")) {
+                    out += (hours || minutes ? "" : "T") + (Math.abs(obj.get("seconds").getAsInt()) + "S");
+                }
                 if (out.length() > 1) {
                     return Duration.parse(out);
                 } else {
-                    rss.err("Unable to parse %sinto a valid duration for %s, must have at least one of: <b>days</b>, <b>hours</b>, or <b>minutes</b>".formatted(json(json), i(title)));
+                    rss.err("Unable to parse %sinto a valid duration for %s, must have at least one of: <b>days</b>, <b>hours</b>, <b>minutes</b>, or <b>seconds</b>".formatted(json(json), i(title)));
                 }
             } else {
-                rss.err("Durations may only be objects, was", json(json));
+                rss.err("Durations may only be objects, was", json);
             }
         } catch (Exception e) {
             rss.err("Failed to parse duration", e);
@@ -112,6 +142,18 @@ public record FeedDef(
         return null;
     }
 
+    /**
+     * @param kilobytes The size limit in kilobytes, 0 for unlimited
+     * @return The size limit in bytes, 0 for unlimited
+     */
+    static int parseBodySize(int kilobytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, kilobytes) * 1024);
+    }
+
+    static <T> T orElse(@Nullable T value, T fallback) {
+        return value == null ? fallback : value;
+    }
+
     static EnumSet<DayOfWeek> parseDaysOfWeek(JsonElement json, String title, Rssifier rss) {
         if (json instanceof JsonArray array) {
             final EnumSet<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
@@ -121,10 +163,10 @@ public record FeedDef(
                         final DayOfWeek day = DayOfWeek.valueOf(prim.getAsString().toUpperCase(Locale.ROOT));
                         days.add(day);
                     } catch (Exception e) {
-                        rss.err("Unknown day of week", json(elm));
+                        rss.err("Unknown day of week", elm);
                     }
                 } else {
-                    rss.err("Days of week in %s feed must be a string value".formatted(i(title)), json(elm));
+                    rss.err("Days of week in %s feed must be a string value".formatted(i(title)), elm);
                 }
             });
             if (days.isEmpty()) {
@@ -132,11 +174,24 @@ public record FeedDef(
             }
             return days;
         } else {
-            rss.err("Days of week in %s was not an array".formatted(i(title)), json(json));
+            rss.err("Days of week in %s was not an array".formatted(i(title)), json);
         }
         return EnumSet.allOf(DayOfWeek.class);
     }
 
+    /**
+     * Values from the top level of the config used by feeds which do not specify their own
+     */
+    public record Defaults(
+            int keep,
+            int hostConnections,
+            Duration hostGap,
+            int maxBodySize,
+            Duration connectTimeout,
+            Duration readTimeout,
+            int retries
+    ) {}
+
     public static String missing(Set<String> has, String... required) {
         final Set<String> missing = new HashSet<>(Set.of(required));
         missing.removeIf(has::contains);
@@ -3,30 +3,58 @@ package com.notenoughmail.rssifier.components;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.notenoughmail.rssifier.Rssifier;
+import org.jsoup.select.Selector;
 import org.jspecify.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.notenoughmail.rssifier.RssifierFormatting.*;
 
 public record PostDef(
-        String title,
-        @Nullable String publishDate,
-        String permalink,
+        Query title,
+        @Nullable Query publishDate,
+        Query permalink,
         Description description,
-        @Nullable String author,
-        boolean multiAuthor
+        @Nullable Query author,
+        boolean multiAuthor,
+        @Nullable Query container
 ) {
     @Nullable
     static PostDef parse(JsonObject json, String title, Rssifier rss) {
-        final String baseQuery = json.has("base_query") ? json.get("base_query").getAsString() : null;
+        String baseQuery = json.has("base_query") ? json.get("base_query").getAsString() : null;
+        final boolean multiPost = json.has("multi_post") && json.get("multi_post").getAsBoolean();
+        if (multiPost && baseQuery == null) {
+            rss.err("%s post definition has <b>multi_post</b> enabled but no <b>base_query</b> to find posts with%s".formatted(i(title), json(json)));
+            return null;
+        }
         if (json.has("permalink") && json.has("title")) {
-            return new PostDef(
-                    appendBaseQuery(baseQuery, json.get("title")),
-                    json.has("publish_date") ? appendBaseQuery(baseQuery, json.get("publish_date")) : null,
-                    appendBaseQuery(baseQuery, json.get("permalink")),
-                    Description.parse(json, baseQuery, title, rss),
-                    json.has("author") ? appendBaseQuery(baseQuery, json.get("author")) : null,
-                    json.has("multi_author") && json.get("multi_author").getAsBoolean()
-            );
+            try {
+                Query container = null;
+                if (multiPost) {
+                    // Every element matching the base query is a post, other queries are evaluated relative to each one
+                    final String base = baseQuery.trim();
+                    if (base.endsWith(">")) {
+                        container = Query.of(base.substring(0, base.length() - 1).trim());
+                        baseQuery = ">";
+                    } else {
+                        container = Query.of(base);
+                        baseQuery = null;
+                    }
+                }
+                return new PostDef(
+                        query(baseQuery, json.get("title")),
+                        json.has("publish_date") ? query(baseQuery, json.get("publish_date")) : null,
+                        query(baseQuery, json.get("permalink")),
+                        Description.parse(json, baseQuery, title, rss),
+                        json.has("author") ? query(baseQuery, json.get("author")) : null,
+                        json.has("multi_author") && json.get("multi_author").getAsBoolean(),
+                        container
+                );
+            } catch (IllegalArgumentException | Selector.SelectorParseException exception) {
+                rss.err("Invalid selector in %s post definition %s".formatted(i(title), json(json)), exception);
+                return null;
+            }
         } else {
             rss.err(
                     "Post definition requires %s properties, %s post definition looks like %sand is missing".formatted(
@@ -40,7 +68,32 @@ public record PostDef(
         }
     }
 
+    /**
+     * @return Every query of the post definition, in the order they are used
+     */
+    public List<Query> queries() {
+        final List<Query> queries = new ArrayList<>();
+        if (container != null) queries.add(container);
+        queries.add(title);
+        queries.add(permalink);
+        if (publishDate != null) queries.add(publishDate);
+        if (author != null) queries.add(author);
+        queries.addAll(description.queries());
+        return queries;
+    }
+
+    /**
+     * @return If every element matching the {@link #container() container} query is a post
+     */
+    public boolean multiPost() {
+        return container != null;
+    }
+
     public static String appendBaseQuery(@Nullable String base, JsonElement query) {
         return base == null ? query.getAsString() : base + " " + query.getAsString();
     }
+
+    static Query query(@Nullable String base, JsonElement query) {
+        return Query.of(appendBaseQuery(base, query));
+    }
 }
@@ -0,0 +1,82 @@
+package com.notenoughmail.rssifier.components;
+
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.jspecify.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A css selector compiled once, when the config is parsed, or when first used if the config was loaded from a
+ * {@link ConfigSnapshot snapshot}
+ */
+public final class Query {
+
+    // Identical selectors across feeds share a single evaluator
+    private static final Map<String, Evaluator> COMPILED = new ConcurrentHashMap<>();
+
+    private final String css;
+    private volatile @Nullable Evaluator evaluator;
+
+    private Query(String css, @Nullable Evaluator evaluator) {
+        this.css = css;
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the selector is empty
+     * @throws org.jsoup.select.Selector.SelectorParseException If the selector is invalid
+     */
+    public static Query of(String css) {
+        return new Query(css, COMPILED.computeIfAbsent(css, QueryParser::parse));
+    }
+
+    /**
+     * @return A query which is only compiled once used, for selectors already known to be valid
+     */
+    static Query ofValid(String css) {
+        return new Query(css, null);
+    }
+
+    /**
+     * Drops every shared evaluator, so those of selectors which were edited out of the config are not kept for the life
+     * of a daemon. Queries which have already been compiled keep their evaluator, others compile theirs again when used
+     */
+    public static void forgetCompiled() {
+        COMPILED.clear();
+    }
+
+    /**
+     * @return The selector as written in the config, used in error messages
+     */
+    public String css() {
+        return css;
+    }
+
+    /**
+     * @return The compiled selector
+     */
+    public Evaluator evaluator() {
+        Evaluator compiled = evaluator;
+        if (compiled == null) {
+            evaluator = compiled = COMPILED.computeIfAbsent(css, QueryParser::parse);
+        }
+        return compiled;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Query other && css.equals(other.css);
+    }
+
+    @Override
+    public int hashCode() {
+        return css.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return css;
+    }
+}
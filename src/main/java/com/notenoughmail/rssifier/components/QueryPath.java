@@ -0,0 +1,242 @@
+package com.notenoughmail.rssifier.components;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A css selector split into its compound selectors and the combinators between them, used to find how much of a
+ * selector which found nothing does match
+ *
+ * @param steps The selector's steps, in order
+ */
+public record QueryPath(List<Step> steps) {
+
+    /**
+     * Splits the selector at its top level combinators, anything inside parentheses, brackets, or quotes is left to the
+     * compound selector it is part of
+     *
+     * @return The selector's path, or null if it is a group of selectors, which has no single path to follow
+     */
+    @Nullable
+    public static QueryPath parse(String css) {
+        final List<Step> steps = new ArrayList<>();
+        final StringBuilder compound = new StringBuilder();
+        Combinator combinator = Combinator.DESCENDANT;
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0 ; i < css.length() ; i++) {
+            final char c = css.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && i + 1 < css.length()) {
+                    compound.append(c).append(css.charAt(++i));
+                    continue;
+                }
+                if (c == quote) {
+                    quote = 0;
+                }
+                compound.append(c);
+                continue;
+            }
+            switch (c) {
+                case '"', '\'' -> {
+                    quote = c;
+                    compound.append(c);
+                }
+                case '(', '[' -> {
+                    depth++;
+                    compound.append(c);
+                }
+                case ')', ']' -> {
+                    depth = Math.max(0, depth - 1);
+                    compound.append(c);
+                }
+                case ',' -> {
+                    if (depth == 0) {
+                        return null;
+                    }
+                    compound.append(c);
+                }
+                case ' ', '\t', '\n', '\r', '>', '+', '~' -> {
+                    if (depth > 0) {
+                        compound.append(c);
+                        break;
+                    }
+                    if (!compound.isEmpty()) {
+                        steps.add(new Step(combinator, compound.toString()));
+                        compound.setLength(0);
+                        combinator = Combinator.DESCENDANT;
+                    }
+                    if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                        combinator = Combinator.of(c);
+                    }
+                }
+                default -> compound.append(c);
+            }
+        }
+        if (!compound.isEmpty()) {
+            steps.add(new Step(combinator, compound.toString()));
+        }
+        return new QueryPath(List.copyOf(steps));
+    }
+
+    /**
+     * Follows the path from the root one step at a time, each step only searching from what the previous step matched
+     *
+     * @return The elements matched by each step, in document order, stopping after the first step which matched nothing
+     */
+    public List<List<Element>> walk(Element root) {
+        final List<List<Element>> matches = new ArrayList<>();
+        List<Element> current = List.of(root);
+        @Nullable Map<Element, Integer> order = null;
+        for (int i = 0 ; i < steps.size() ; i++) {
+            final Step step = steps.get(i);
+            final Evaluator evaluator;
+            try {
+                evaluator = QueryParser.parse(step.compound);
+            } catch (Selector.SelectorParseException | IllegalArgumentException e) {
+                matches.add(List.of());
+                break;
+            }
+            // A selector starting without a combinator may match the root itself, as Element#select does
+            final List<Element> next = step.combinator.next(root, current, evaluator, i == 0 && step.combinator == Combinator.DESCENDANT);
+            if (current.size() > 1 && next.size() > 1) {
+                // Elements found from a single context are already in document order, from several they are grouped by context
+                if (order == null) {
+                    order = new IdentityHashMap<>();
+                    for (Element element : root.getAllElements()) {
+                        order.put(element, order.size());
+                    }
+                }
+                final Map<Element, Integer> positions = order;
+                // Only siblings of the root itself are outside of it, they come after it
+                current = next.stream().sorted(Comparator.comparingInt(element -> positions.getOrDefault(element, Integer.MAX_VALUE))).toList();
+            } else {
+                current = next;
+            }
+            matches.add(current);
+            if (current.isEmpty()) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return The css of the first {@code count} steps
+     */
+    public String prefix(int count) {
+        final StringBuilder css = new StringBuilder();
+        for (int i = 0 ; i < count ; i++) {
+            final Step step = steps.get(i);
+            if (i > 0) {
+                css.append(' ');
+            }
+            if (step.combinator != Combinator.DESCENDANT) {
+                css.append(step.combinator.symbol).append(' ');
+            }
+            css.append(step.compound);
+        }
+        return css.toString();
+    }
+
+    /**
+     * @param combinator How the step relates to the elements the previous step matched
+     * @param compound   The compound selector elements must match
+     */
+    public record Step(Combinator combinator, String compound) {}
+
+    public enum Combinator {
+        DESCENDANT(' '),
+        CHILD('>'),
+        ADJACENT('+'),
+        SIBLING('~');
+
+        final char symbol;
+
+        Combinator(char symbol) {
+            this.symbol = symbol;
+        }
+
+        static Combinator of(char symbol) {
+            return switch (symbol) {
+                case '>' -> CHILD;
+                case '+' -> ADJACENT;
+                case '~' -> SIBLING;
+                default -> DESCENDANT;
+            };
+        }
+
+        /**
+         * @return The elements related to any of the context elements which match, each element at most once
+         */
+        List<Element> next(Element root, List<Element> context, Evaluator evaluator, boolean includeContext) {
+            final Set<Element> found = new LinkedHashSet<>();
+            switch (this) {
+                case DESCENDANT -> {
+                    // Elements already seen were reached from an earlier context, their subtrees have been searched
+                    final Set<Element> seen = new HashSet<>();
+                    for (Element start : context) {
+                        start.filter(new NodeFilter() {
+                            @Override
+                            public FilterResult head(Node node, int depth) {
+                                if (!(node instanceof Element element)) {
+                                    return FilterResult.SKIP_ENTIRELY;
+                                }
+                                if (element != start || includeContext) {
+                                    if (!seen.add(element)) {
+                                        return FilterResult.SKIP_ENTIRELY;
+                                    }
+                                    if (evaluator.matches(root, element)) {
+                                        found.add(element);
+                                    }
+                                }
+                                return FilterResult.CONTINUE;
+                            }
+                        });
+                    }
+                }
+                case CHILD -> {
+                    for (Element parent : context) {
+                        for (Element child : parent.children()) {
+                            if (evaluator.matches(root, child)) {
+                                found.add(child);
+                            }
+                        }
+                    }
+                }
+                case ADJACENT -> {
+                    for (Element element : context) {
+                        final Element next = element.nextElementSibling();
+                        if (next != null && evaluator.matches(root, next)) {
+                            found.add(next);
+                        }
+                    }
+                }
+                case SIBLING -> {
+                    for (Element element : context) {
+                        for (Element next = element.nextElementSibling() ; next != null ; next = next.nextElementSibling()) {
+                            if (evaluator.matches(root, next)) {
+                                found.add(next);
+                            }
+                        }
+                    }
+                }
+            }
+            return List.copyOf(found);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.notenoughmail.rssifier.feed;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.notenoughmail.rssifier.Rssifier;
+import com.notenoughmail.rssifier.components.FeedDef;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.notenoughmail.rssifier.RssifierFormatting.html;
+import static com.notenoughmail.rssifier.RssifierFormatting.i;
+
+/**
+ * Hashes of the posts in a feed, and of posts recently pushed out of it, used to check if a post is new in constant time
+ * <p>
+ * Posts are identified by their title, or by their title and link if the feed {@link FeedDef#verifyUniqueness() verifies uniqueness}
+ */
+public class DedupIndex {
+
+    private final FeedDef def;
+    private final StateStore state;
+    private final Set<Long> present = new HashSet<>();
+    // Insertion ordered so the oldest evictions are forgotten first
+    private final LinkedHashSet<Long> evicted = new LinkedHashSet<>();
+    private final int evictedCapacity;
+    private boolean evictedChanged = false;
+
+    private DedupIndex(FeedDef def, StateStore state) {
+        this.def = def;
+        this.state = state;
+        evictedCapacity = Math.max(64, def.keep() * 4);
+    }
+
+    public static DedupIndex build(FeedDef def, List<FeedItem> items, StateStore state, Rssifier rss) throws IOException {
+        final DedupIndex index = new DedupIndex(def, state);
+        for (FeedItem item : items) {
+            final String title = item.title();
+            if (title == null) {
+                rss.err("Existing %s post %s did not have a 'title' element?".formatted(
+                        i(def.title()),
+                        html(item.toString())
+                ));
+                continue;
+            }
+            index.present.add(index.key(title, item.link()));
+        }
+        state.view(def, json -> {
+            final JsonElement evicted = json.get("evicted");
+            if (evicted != null) {
+                for (JsonElement key : evicted.getAsJsonArray()) {
+                    try {
+                        index.evicted.add(HexFormat.fromHexDigitsToLong(key.getAsString()));
+                    } catch (IllegalArgumentException ignored) {
+                        // Forgetting an eviction at worst lets an old post be re-added
+                    }
+                }
+            }
+            return null;
+        });
+        return index;
+    }
+
+    /**
+     * @return If the post is neither in the feed nor was recently pushed out of it
+     */
+    public boolean isNew(String title, String link) {
+        final long key = key(title, link);
+        return !present.contains(key) && !evicted.contains(key);
+    }
+
+    public void add(String title, String link) {
+        present.add(key(title, link));
+    }
+
+    /**
+     * Records that an item has been removed from the feed, so that it is not considered new should it be found again
+     */
+    public void evict(FeedItem item) {
+        final String title = item.title();
+        if (title != null) {
+            final long key = key(title, item.link());
+            present.remove(key);
+            evicted.remove(key);
+            evicted.add(key);
+            evictedChanged = true;
+            final Iterator<Long> oldest = evicted.iterator();
+            while (evicted.size() > evictedCapacity) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return The definition of the feed the index was built for
+     */
+    public FeedDef def() {
+        return def;
+    }
+
+    public void save() throws IOException {
+        if (evictedChanged) {
+            final JsonArray keys = new JsonArray();
+            evicted.forEach(key -> keys.add(HexFormat.of().toHexDigits(key)));
+            state.update(def, json -> json.add("evicted", keys));
+            evictedChanged = false;
+        }
+    }
+
+    private long key(String title, String link) {
+        return hash(def.verifyUniqueness() ? title + '\n' + link : title);
+    }
+
+    private static long hash(String key) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8))).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+        }
+    }
+}
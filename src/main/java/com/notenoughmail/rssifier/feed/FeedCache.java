@@ -0,0 +1,34 @@
+package com.notenoughmail.rssifier.feed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps loaded feed files in memory between runs, reloading a file only if it has been changed on disk since it was loaded
+ */
+public class FeedCache {
+
+    private final Map<Path, FeedModel> models = new ConcurrentHashMap<>();
+
+    public FeedModel get(Path path) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        final FeedModel cached = models.get(path);
+        if (cached != null && cached.lastModified == attributes.lastModifiedTime().toMillis() && cached.size == attributes.size()) {
+            return cached;
+        }
+        final FeedModel model = FeedModel.load(path, attributes);
+        models.put(path, model);
+        return model;
+    }
+
+    /**
+     * Drops the cached model, should be used if the model may have been changed without being written
+     */
+    public void invalidate(Path path) {
+        models.remove(path);
+    }
+}
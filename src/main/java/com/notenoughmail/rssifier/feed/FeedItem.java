@@ -0,0 +1,102 @@
+package com.notenoughmail.rssifier.feed;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An item of a feed, kept as the exact bytes it has in the feed file
+ * <p>
+ * Items read from a file are never parsed, their title and link are picked out of the bytes the first time they are needed
+ */
+public final class FeedItem {
+
+    private static final String UTM_SUFFIX = "?utm_source=rss";
+
+    private final byte[] bytes;
+    private @Nullable String title, link;
+    private boolean extracted;
+
+    FeedItem(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Serializes a new item, as the feed's document would have
+     */
+    public static FeedItem of(Element item) {
+        final Document shell = new Document("");
+        shell.outputSettings()
+                .syntax(Document.OutputSettings.Syntax.xml)
+                .escapeMode(Entities.EscapeMode.xhtml)
+                .prettyPrint(false);
+        shell.appendChild(item);
+        final FeedItem feedItem = new FeedItem(item.outerHtml().getBytes(StandardCharsets.UTF_8));
+        final Element title = child(item, "title");
+        feedItem.title = title == null ? null : title.text().trim();
+        final Element guid = child(item, "guid");
+        final Element link = child(item, "link");
+        feedItem.link = link(guid == null ? null : guid.text().trim(), link == null ? null : link.text().trim());
+        feedItem.extracted = true;
+        return feedItem;
+    }
+
+    /**
+     * @return The item's title, or null if it does not have one
+     */
+    @Nullable
+    public String title() {
+        extract();
+        return title;
+    }
+
+    /**
+     * @return The item's guid, or its link without the tracking suffix Rssifier adds if it does not have one
+     */
+    public String link() {
+        extract();
+        return link;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    private void extract() {
+        if (!extracted) {
+            title = FeedScanner.text(bytes, 0, bytes.length, "title");
+            link = link(FeedScanner.text(bytes, 0, bytes.length, "guid"), FeedScanner.text(bytes, 0, bytes.length, "link"));
+            extracted = true;
+        }
+    }
+
+    private static String link(@Nullable String guid, @Nullable String link) {
+        if (guid != null) {
+            return guid;
+        }
+        if (link == null) {
+            return "";
+        }
+        return link.endsWith(UTM_SUFFIX) ? link.substring(0, link.length() - UTM_SUFFIX.length()) : link;
+    }
+
+    @Nullable
+    private static Element child(Element item, String tag) {
+        for (Element child : item.children()) {
+            if (child.nameIs(tag)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,155 @@
+package com.notenoughmail.rssifier.feed;
+
+import com.notenoughmail.rssifier.Rssifier;
+import com.notenoughmail.rssifier.components.FeedDef;
+import com.notenoughmail.rssifier.metrics.FeedMetrics;
+import org.jsoup.nodes.Element;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A feed file split into the bytes before its first item, its items, and the bytes after its last item
+ * <p>
+ * The file is never parsed, only scanned for where its items start and end. Writing it writes the head, the new items,
+ * the existing items byte-for-byte, and the tail, so the cost of an update does not grow with the size of the feed
+ * <p>
+ * Changes are made directly to the model and only reach the file once it is {@link #write() written}
+ */
+public final class FeedModel {
+
+    // Older versions kept the time stamp of the last query in the feed, it now lives in the StateStore
+    private static final Pattern TIME_STAMP = Pattern.compile("\\s*<timeStamp>[^<]*</timeStamp>");
+
+    private final Path path;
+    private final byte[] head, tail;
+    private final List<FeedItem> items;
+    private @Nullable DedupIndex index;
+    // Used by FeedCache to tell if the file has been changed by something else
+    long lastModified, size;
+
+    private FeedModel(Path path, byte[] head, List<FeedItem> items, byte[] tail) {
+        this.path = path;
+        this.head = head;
+        this.items = items;
+        this.tail = tail;
+    }
+
+    static FeedModel load(Path path, BasicFileAttributes attributes) throws IOException {
+        final byte[] content = Files.readAllBytes(path);
+        final int channel = FeedScanner.find(content, 0, content.length, "channel", false);
+        final int channelEnd = channel < 0 ? -1 : FeedScanner.find(content, channel, content.length, "channel", true);
+        if (channelEnd < 0) {
+            throw new IOException("%s does not have a channel element".formatted(path));
+        }
+
+        // Anything between two items stays with the item before it
+        final List<FeedItem> items = new ArrayList<>();
+        int start = FeedScanner.find(content, channel, channelEnd, "item", false);
+        final int head = start < 0 ? channelEnd : start;
+        int tail = channelEnd;
+        while (start >= 0) {
+            final int close = FeedScanner.find(content, start, channelEnd, "item", true);
+            if (close < 0) {
+                throw new IOException("%s has an item which is never closed".formatted(path));
+            }
+            tail = FeedScanner.tagEnd(content, close, channelEnd);
+            final int next = FeedScanner.find(content, tail, channelEnd, "item", false);
+            items.add(new FeedItem(Arrays.copyOfRange(content, start, next < 0 ? tail : next)));
+            start = next;
+        }
+
+        final FeedModel model = new FeedModel(
+                path,
+                stripTimeStamp(Arrays.copyOfRange(content, 0, head)),
+                items,
+                stripTimeStamp(Arrays.copyOfRange(content, tail, content.length))
+        );
+        model.lastModified = attributes.lastModifiedTime().toMillis();
+        model.size = attributes.size();
+        return model;
+    }
+
+    private static byte[] stripTimeStamp(byte[] bytes) {
+        final String text = new String(bytes, StandardCharsets.UTF_8);
+        if (!text.contains("<timeStamp>")) {
+            return bytes;
+        }
+        return TIME_STAMP.matcher(text).replaceAll("").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The feed's items, newest first
+     */
+    public List<FeedItem> items() {
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * The index of the feed's items, built the first time it is needed and kept up to date by {@link #addPosts(List, int)}
+     * <p>
+     * Rebuilt if the feed's definition has changed since, such as by a reloaded config, as how posts are identified and
+     * how many evicted posts are remembered depend on it
+     */
+    public DedupIndex index(FeedDef def, StateStore state, Rssifier rss) throws IOException {
+        if (index == null || !index.def().equals(def)) {
+            index = DedupIndex.build(def, items, state, rss);
+        }
+        return index;
+    }
+
+    /**
+     * Adds the posts to the top of the feed, in the order given, removing the oldest items past {@code keep}
+     * <p>
+     * Only the new posts are serialized, existing items are kept as they are in the file
+     */
+    public void addPosts(List<Element> posts, int keep) {
+        items.addAll(0, posts.stream().map(FeedItem::of).toList());
+        while (items.size() > keep) {
+            final FeedItem removed = items.removeLast();
+            if (index != null) {
+                index.evict(removed);
+            }
+        }
+    }
+
+    /**
+     * @return The bytes written, or null if the file's content was unchanged
+     */
+    public byte @Nullable [] write() throws IOException {
+        return write(null);
+    }
+
+    /**
+     * @param metrics If present, records the time spent serializing and writing the feed
+     * @return The bytes written, or null if the file's content was unchanged
+     */
+    public byte @Nullable [] write(@Nullable FeedMetrics metrics) throws IOException {
+        final byte[] written = FeedWriter.writeRaw(path, this::writeTo, metrics);
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        lastModified = attributes.lastModifiedTime().toMillis();
+        size = attributes.size();
+        if (index != null) {
+            index.save();
+        }
+        return written;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(head);
+        for (FeedItem item : items) {
+            item.writeTo(out);
+        }
+        out.write(tail);
+    }
+}
@@ -0,0 +1,142 @@
+package com.notenoughmail.rssifier.feed;
+
+import org.jsoup.parser.Parser;
+import org.jspecify.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds tags in the raw bytes of a feed file without parsing it
+ * <p>
+ * Only as much of XML is understood as is needed to not be fooled by markup inside comments, CDATA sections and quoted
+ * attribute values; everything else is treated as opaque bytes
+ */
+final class FeedScanner {
+
+    private static final byte[] COMMENT = bytes("<!--"), COMMENT_END = bytes("-->");
+    private static final byte[] CDATA = bytes("<![CDATA["), CDATA_END = bytes("]]>");
+
+    private FeedScanner() {}
+
+    /**
+     * @param end If the tag searched for is an end tag
+     * @return The index of the {@code <} of the first tag with the name in {@code [from, to)}, or -1 if there is none
+     */
+    static int find(byte[] content, int from, int to, String name, boolean end) {
+        for (int i = from ; i < to ; i++) {
+            if (content[i] != '<') {
+                continue;
+            }
+            if (startsWith(content, i, to, COMMENT)) {
+                i = skip(content, i + COMMENT.length, to, COMMENT_END) - 1;
+            } else if (startsWith(content, i, to, CDATA)) {
+                i = skip(content, i + CDATA.length, to, CDATA_END) - 1;
+            } else if (end == (i + 1 < to && content[i + 1] == '/') && isName(content, end ? i + 2 : i + 1, to, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param start The index of the tag's {@code <}
+     * @return The index just past the tag's {@code >}, or {@code to} if it is never closed
+     */
+    static int tagEnd(byte[] content, int start, int to) {
+        byte quote = 0;
+        for (int i = start ; i < to ; i++) {
+            final byte b = content[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i + 1;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @return The text of the first element with the name in {@code [from, to)}, with CDATA sections and entities
+     * resolved and whitespace normalized as {@link org.jsoup.nodes.Element#text()} does, or null if there is no such element
+     */
+    @Nullable
+    static String text(byte[] content, int from, int to, String name) {
+        final int open = find(content, from, to, name, false);
+        if (open < 0) {
+            return null;
+        }
+        final int start = tagEnd(content, open, to);
+        if (start - open > 2 && content[start - 1] == '>' && content[start - 2] == '/') {
+            // <name/>
+            return "";
+        }
+        final int close = find(content, start, to, name, true);
+        final int end = close < 0 ? to : close;
+        final StringBuilder text = new StringBuilder();
+        int i = start;
+        while (i < end) {
+            final int cdata = indexOf(content, i, end, CDATA);
+            final int markup = cdata < 0 ? end : cdata;
+            text.append(Parser.unescapeEntities(
+                    new String(content, i, markup - i, StandardCharsets.UTF_8).replaceAll("<[^>]*>", ""),
+                    false
+            ));
+            if (cdata < 0) {
+                break;
+            }
+            final int cdataEnd = indexOf(content, cdata + CDATA.length, end, CDATA_END);
+            final int textEnd = cdataEnd < 0 ? end : cdataEnd;
+            text.append(new String(content, cdata + CDATA.length, textEnd - cdata - CDATA.length, StandardCharsets.UTF_8));
+            i = cdataEnd < 0 ? end : cdataEnd + CDATA_END.length;
+        }
+        return text.toString().replaceAll("\\s+", " ").trim();
+    }
+
+    private static boolean isName(byte[] content, int at, int to, String name) {
+        final int end = at + name.length();
+        if (end >= to) {
+            return false;
+        }
+        for (int i = 0 ; i < name.length() ; i++) {
+            if (content[at + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        final byte next = content[end];
+        return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\n' || next == '\r';
+    }
+
+    private static boolean startsWith(byte[] content, int at, int to, byte[] prefix) {
+        if (at + prefix.length > to) {
+            return false;
+        }
+        for (int i = 0 ; i < prefix.length ; i++) {
+            if (content[at + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] content, int from, int to, byte[] target) {
+        for (int i = from ; i <= to - target.length ; i++) {
+            if (startsWith(content, i, to, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skip(byte[] content, int from, int to, byte[] terminator) {
+        final int index = indexOf(content, from, to, terminator);
+        return index < 0 ? to : index + terminator.length;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
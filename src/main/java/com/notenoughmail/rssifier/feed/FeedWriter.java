@@ -0,0 +1,180 @@
+package com.notenoughmail.rssifier.feed;
+
+import com.notenoughmail.rssifier.metrics.FeedMetrics;
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes files so that they are either fully replaced or left untouched, never partially written
+ * <p>
+ * Content is produced in memory first. If it is byte-for-byte the same as what is already there, nothing is written at
+ * all, otherwise it is written to a temporary file next to the target, synced to disk, and moved over the target
+ */
+public final class FeedWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private FeedWriter() {}
+
+    /**
+     * @return If the file was written, false if its content was unchanged
+     */
+    public static boolean write(Path path, String content) throws IOException {
+        return write(path, writer -> writer.write(content));
+    }
+
+    /**
+     * @return If the file was written, false if its content was unchanged
+     */
+    public static boolean write(Path path, Content content) throws IOException {
+        return write(path, content, null);
+    }
+
+    /**
+     * @param metrics If present, the time spent producing the content is added to its {@link FeedMetrics.Stage#SERIALIZE serialize}
+     *                stage and the rest to its {@link FeedMetrics.Stage#WRITE write} stage
+     * @return If the file was written, false if its content was unchanged
+     */
+    public static boolean write(Path path, Content content, @Nullable FeedMetrics metrics) throws IOException {
+        return writeRaw(path, out -> {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            content.writeTo(writer);
+            writer.flush();
+        }, metrics) != null;
+    }
+
+    /**
+     * As {@link #write(Path, Content, FeedMetrics)}, for content that is already encoded
+     *
+     * @return The bytes written, or null if the file's content was unchanged
+     */
+    public static byte @Nullable [] writeRaw(Path path, RawContent content, @Nullable FeedMetrics metrics) throws IOException {
+        long time = System.nanoTime();
+        final Buffer buffer = new Buffer();
+        content.writeTo(buffer);
+        if (metrics != null) {
+            time = metrics.lap(FeedMetrics.Stage.SERIALIZE, time);
+        }
+        try {
+            if (sameContent(path, buffer)) {
+                return null;
+            }
+            final Path directory = path.toAbsolutePath().getParent();
+            // Files.createTempFile would make the file, and so the feed once moved, only readable by its owner
+            final Path temp = directory.resolve("%s.%016x.tmp".formatted(path.getFileName(), ThreadLocalRandom.current().nextLong()));
+            final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                try (channel) {
+                    copyPermissions(path, temp);
+                    final ByteBuffer bytes = buffer.bytes();
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    channel.force(true);
+                }
+                try {
+                    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            syncDirectory(directory);
+            return buffer.toByteArray();
+        } finally {
+            if (metrics != null) {
+                metrics.lap(FeedMetrics.Stage.WRITE, time);
+            }
+        }
+    }
+
+    /**
+     * @return If the file exists and holds exactly the buffer's bytes, only reading the file if the sizes match
+     */
+    private static boolean sameContent(Path path, Buffer buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != buffer.size()) {
+                return false;
+            }
+            final ByteBuffer expected = buffer.bytes();
+            final ByteBuffer actual = ByteBuffer.allocate(Math.min(BUFFER_SIZE, Math.max(1, buffer.size())));
+            while (expected.hasRemaining()) {
+                actual.clear().limit(Math.min(actual.capacity(), expected.remaining()));
+                if (channel.read(actual) < 0) {
+                    return false;
+                }
+                actual.flip();
+                if (!actual.equals(expected.slice(expected.position(), actual.remaining()))) {
+                    return false;
+                }
+                expected.position(expected.position() + actual.remaining());
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gives the file that replaces the target the target's permissions, a new file keeps those it was created with
+     */
+    private static void copyPermissions(Path target, Path temp) throws IOException {
+        try {
+            Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+        } catch (NoSuchFileException | UnsupportedOperationException ignored) {
+            // There is no target yet, or the file system has no POSIX permissions to copy
+        }
+    }
+
+    /**
+     * Makes a move into the directory durable, as a rename is only recorded on disk once its directory is synced
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // Some platforms, such as Windows, cannot open a directory as a channel, the move is left to the file system
+        }
+    }
+
+    /**
+     * Exposes its bytes without copying them
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(BUFFER_SIZE);
+        }
+
+        ByteBuffer bytes() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface RawContent {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,225 @@
+package com.notenoughmail.rssifier.feed;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.notenoughmail.rssifier.components.FeedDef;
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rssifier's record of each feed: when its site was last queried and successfully processed, the {@link com.notenoughmail.rssifier.fetch.FetchMeta fetch metadata}
+ * of its site, and the keys of posts {@link DedupIndex#evict(FeedItem) evicted} from it. Also records the
+ * state of each host's {@link com.notenoughmail.rssifier.fetch.CircuitBreaker circuit breaker}
+ * <p>
+ * Stored as a single file of json lines, one per change. When a feed's state changes a line with its full state is
+ * appended, on reading the last line for each feed wins. Once enough lines have been superseded the file is compacted
+ * to a single line per feed
+ * <p>
+ * When several {@link com.notenoughmail.rssifier.shard.Shard shards} run at once each keeps its own file, every state
+ * is stamped with when it was last changed so the newest state of a feed can be {@link #merge(Path) merged} in from the
+ * file of the shard which last handled it
+ */
+public class StateStore {
+
+    private static final Pattern LEGACY_TIME_STAMP = Pattern.compile("<timeStamp>([^<]*)</timeStamp>");
+
+    private final Path path;
+    // Feeds are keyed by their name and hosts by their name prefixed with '/', which cannot appear in a file name
+    private final Map<String, JsonObject> states = new LinkedHashMap<>();
+    private int lines;
+
+    private StateStore(Path path) {
+        this.path = path;
+    }
+
+    public static StateStore load(Path path) throws IOException {
+        final StateStore store = new StateStore(path);
+        store.lines = read(path, store.states);
+        if (store.shouldCompact()) {
+            store.compact();
+        }
+        return store;
+    }
+
+    /**
+     * Takes each state from another store's file which is newer than the state held, so that feeds handled by another
+     * shard continue from where it left off
+     *
+     * @return The number of states taken
+     */
+    public synchronized int merge(Path other) throws IOException {
+        final Map<String, JsonObject> others = new LinkedHashMap<>();
+        read(other, others);
+        int merged = 0;
+        for (Map.Entry<String, JsonObject> entry : others.entrySet()) {
+            final JsonObject current = states.get(entry.getKey());
+            if (current == null || updated(entry.getValue()) > updated(current)) {
+                states.put(entry.getKey(), entry.getValue());
+                save(entry.getValue());
+                merged++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return The number of lines read
+     */
+    private static int read(Path path, Map<String, JsonObject> states) throws IOException {
+        int lines = 0;
+        if (Files.exists(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    try {
+                        final JsonObject state = JsonParser.parseString(line).getAsJsonObject();
+                        states.put(state.has("host") ? '/' + state.get("host").getAsString() : state.get("feed").getAsString(), state);
+                    } catch (Exception ignored) {
+                        // Most likely the last line was only partially written, the previous state of the feed is used
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static long updated(JsonObject state) {
+        final JsonElement updated = state.get("updated");
+        return updated == null ? 0 : updated.getAsLong();
+    }
+
+    /**
+     * Reads values from the feed's state without copying it
+     *
+     * @param reader Given the stored state, which it must neither change nor keep
+     */
+    public synchronized <T> T view(FeedDef def, Function<JsonObject, T> reader) throws IOException {
+        return reader.apply(entry(def));
+    }
+
+    /**
+     * Changes the feed's state and saves it
+     */
+    public synchronized void update(FeedDef def, Consumer<JsonObject> change) throws IOException {
+        final JsonObject state = entry(def);
+        final JsonObject before = state.deepCopy();
+        change.accept(state);
+        if (!state.equals(before)) {
+            state.addProperty("updated", System.currentTimeMillis());
+            save(state);
+        }
+    }
+
+    /**
+     * Reads values from the host's state without copying it
+     *
+     * @param reader Given the stored state, which it must neither change nor keep
+     */
+    public synchronized <T> T viewHost(String host, Function<JsonObject, T> reader) {
+        return reader.apply(hostEntry(host));
+    }
+
+    public synchronized void updateHost(String host, Consumer<JsonObject> change) throws IOException {
+        final JsonObject state = hostEntry(host);
+        final JsonObject before = state.deepCopy();
+        change.accept(state);
+        if (!state.equals(before)) {
+            state.addProperty("updated", System.currentTimeMillis());
+            save(state);
+        }
+    }
+
+    @Nullable
+    public LocalDateTime lastQuery(FeedDef def) throws IOException {
+        return view(def, state -> time(state.get("last_query")));
+    }
+
+    /**
+     * @return The number of times in a row the feed's site could not be fetched
+     */
+    public int failures(FeedDef def) throws IOException {
+        return view(def, state -> {
+            final JsonElement failures = state.get("failures");
+            return failures == null ? 0 : failures.getAsInt();
+        });
+    }
+
+    @Nullable
+    public static LocalDateTime time(@Nullable JsonElement json) {
+        return json == null ? null : LocalDateTime.from(DateTimeFormatter.ISO_DATE_TIME.parse(json.getAsString()));
+    }
+
+    public static String name(FeedDef def) {
+        final String file = def.file().getFileName().toString();
+        return file.substring(0, file.length() - 4);
+    }
+
+    private JsonObject hostEntry(String host) {
+        return states.computeIfAbsent('/' + host, key -> {
+            final JsonObject state = new JsonObject();
+            state.addProperty("host", host);
+            return state;
+        });
+    }
+
+    private JsonObject entry(FeedDef def) throws IOException {
+        final String name = name(def);
+        JsonObject state = states.get(name);
+        if (state == null) {
+            state = migrate(def, name);
+            states.put(name, state);
+        }
+        return state;
+    }
+
+    /**
+     * Carries over the time of the last query older versions of Rssifier kept inside each feed file
+     */
+    private static JsonObject migrate(FeedDef def, String name) throws IOException {
+        final JsonObject state = new JsonObject();
+        state.addProperty("feed", name);
+        if (Files.exists(def.file())) {
+            final Matcher timeStamp = LEGACY_TIME_STAMP.matcher(Files.readString(def.file()));
+            if (timeStamp.find() && !timeStamp.group(1).startsWith("1970")) {
+                state.addProperty("last_query", timeStamp.group(1).trim());
+            }
+        }
+        return state;
+    }
+
+    private void save(JsonObject state) throws IOException {
+        if (shouldCompact()) {
+            compact();
+        } else {
+            Files.writeString(path, state + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            lines++;
+        }
+    }
+
+    private boolean shouldCompact() {
+        return lines > Math.max(64, states.size() * 2);
+    }
+
+    private void compact() throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        states.values().forEach(state -> builder.append(state).append('\n'));
+        FeedWriter.write(path, builder.toString());
+        lines = states.size();
+    }
+}
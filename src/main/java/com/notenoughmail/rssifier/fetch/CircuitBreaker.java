@@ -0,0 +1,70 @@
+package com.notenoughmail.rssifier.fetch;
+
+import com.google.gson.JsonObject;
+import com.notenoughmail.rssifier.feed.StateStore;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Stops querying hosts which have failed too many times in a row, until a cool-down has passed
+ * <p>
+ * Once the cool-down has passed a single fetch is let through to probe the host, if it succeeds the host is queried as
+ * normal again, otherwise the cool-down starts over. State is kept in the {@link StateStore}, so a host that is down
+ * stays skipped across runs
+ */
+public class CircuitBreaker {
+
+    private final StateStore state;
+
+    public CircuitBreaker(StateStore state) {
+        this.state = state;
+    }
+
+    /**
+     * @param threshold The number of failures in a row after which the host is skipped, 0 to never skip hosts
+     * @return If a fetch may be made to the host
+     */
+    public synchronized boolean allow(String host, int threshold, Duration cooldown, LocalDateTime now) throws IOException {
+        if (threshold <= 0 || state.viewHost(host, CircuitBreaker::failures) < threshold) {
+            return true;
+        }
+        final LocalDateTime until = state.viewHost(host, json -> StateStore.time(json.get("open_until")));
+        if (until != null && until.isAfter(now)) {
+            return false;
+        }
+        // Let this fetch probe the host, everything else keeps being skipped until it is done
+        state.updateHost(host, update -> update.addProperty("open_until", DateTimeFormatter.ISO_DATE_TIME.format(now.plus(cooldown))));
+        return true;
+    }
+
+    /**
+     * Records a failed fetch to the host
+     *
+     * @return If the host will now be skipped
+     */
+    public synchronized boolean failure(String host, int threshold, Duration cooldown, LocalDateTime now) throws IOException {
+        final int failures = state.viewHost(host, CircuitBreaker::failures) + 1;
+        final boolean open = threshold > 0 && failures >= threshold;
+        state.updateHost(host, update -> {
+            update.addProperty("failures", failures);
+            if (open) {
+                update.addProperty("open_until", DateTimeFormatter.ISO_DATE_TIME.format(now.plus(cooldown)));
+            }
+        });
+        return open;
+    }
+
+    public synchronized void success(String host) throws IOException {
+        state.updateHost(host, update -> {
+            update.remove("failures");
+            update.remove("open_until");
+        });
+    }
+
+    private static int failures(JsonObject json) {
+        return json.has("failures") ? json.get("failures").getAsInt() : 0;
+    }
+}
@@ -0,0 +1,77 @@
+package com.notenoughmail.rssifier.fetch;
+
+import com.google.gson.JsonObject;
+import com.notenoughmail.rssifier.components.FeedDef;
+import com.notenoughmail.rssifier.feed.StateStore;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * What was known about a feed's site the last time it was successfully processed, kept in the {@link StateStore}
+ *
+ * @param etag         The {@code ETag} header of the last response, if any
+ * @param lastModified The {@code Last-Modified} header of the last response, if any
+ * @param bodyHash     The SHA-256 hash of the last response's body
+ * @param postsHash    A hash of the post definition the site was processed with, so that changing a feed's selectors
+ *                     will always cause the site to be processed again
+ * @param sentinel     The {@link Sentinel} of the site's latest post, if the feed uses one and it could be made
+ */
+public record FetchMeta(
+        @Nullable String etag,
+        @Nullable String lastModified,
+        @Nullable String bodyHash,
+        String postsHash,
+        @Nullable Sentinel sentinel
+) {
+    public static FetchMeta read(FeedDef def, StateStore state) throws IOException {
+        final String postsHash = postsHash(def);
+        return state.view(def, json -> {
+            if (json.has("posts") && json.get("posts").getAsString().equals(postsHash)) {
+                return new FetchMeta(
+                        json.has("etag") ? json.get("etag").getAsString() : null,
+                        json.has("last_modified") ? json.get("last_modified").getAsString() : null,
+                        json.has("body") ? json.get("body").getAsString() : null,
+                        postsHash,
+                        json.has("sentinel") && json.get("sentinel").isJsonObject() ? Sentinel.read(json.getAsJsonObject("sentinel")) : null
+                );
+            }
+            return new FetchMeta(null, null, null, postsHash, null);
+        });
+    }
+
+    public FetchMeta withSentinel(@Nullable Sentinel sentinel) {
+        return new FetchMeta(etag, lastModified, bodyHash, postsHash, sentinel);
+    }
+
+    /**
+     * Replaces the metadata in a feed's state
+     */
+    public void writeTo(JsonObject json) {
+        json.remove("etag");
+        json.remove("last_modified");
+        json.remove("body");
+        json.remove("sentinel");
+        if (etag != null) json.addProperty("etag", etag);
+        if (lastModified != null) json.addProperty("last_modified", lastModified);
+        if (bodyHash != null) json.addProperty("body", bodyHash);
+        json.addProperty("posts", postsHash);
+        if (sentinel != null) json.add("sentinel", sentinel.toJson());
+    }
+
+    private static String postsHash(FeedDef def) {
+        return hash(def.posts().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package com.notenoughmail.rssifier.fetch;
+
+import com.notenoughmail.rssifier.components.FeedDef;
+import com.notenoughmail.rssifier.components.Query;
+import com.notenoughmail.rssifier.feed.StateStore;
+import com.notenoughmail.rssifier.metrics.FeedMetrics;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.UnsupportedMimeTypeException;
+import org.jsoup.helper.HttpConnection;
+import org.jsoup.nodes.Document;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Fetches sites conditionally, using the {@link FetchMeta} of the previous successful fetch to avoid downloading and
+ * parsing sites which have not changed
+ */
+public class Fetcher {
+
+    private static final Pattern XML_CONTENT_TYPE = Pattern.compile("(\\w+)/\\w*\\+?xml.*");
+    private static final Pattern CHARSET = Pattern.compile("(?i)charset=([^;]+)");
+    private static final long BACKOFF_MILLIS = 1000, MAX_BACKOFF_MILLIS = 30_000;
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("rssifier-read-timeouts").factory());
+
+    private final StateStore state;
+    private final Map<Duration, HttpClient> clients = new ConcurrentHashMap<>();
+
+    public Fetcher(StateStore state) {
+        this.state = state;
+    }
+
+    /**
+     * Fetches the site, retrying {@link #isTransient(IOException) transient} failures up to the feed's number of
+     * {@link FeedDef#retries() retries} with exponential backoff
+     * <p>
+     * A site shared by several feeds is fetched and parsed once, using the first feed's connection settings, timeouts,
+     * and retries. Each feed still gets its own result, as each may have last seen a different version of the site
+     *
+     * @param defs    Feeds with the same {@link #pageOf(String) page}
+     * @param metrics Where the fetch and parse are recorded
+     * @return The result for each feed, in the order given
+     */
+    public List<Result> fetch(List<FeedDef> defs, FeedMetrics metrics) throws IOException {
+        final FeedDef def = defs.getFirst();
+        final long start = System.nanoTime();
+        for (int attempt = 0 ; ; attempt++) {
+            try {
+                return attempt(defs, metrics, start);
+            } catch (IOException e) {
+                if (attempt >= def.retries() || !isTransient(e)) {
+                    throw e;
+                }
+                // Full backoff is 1s, 2s, 4s... up to 30s, of which a random half to all is waited to spread out retries
+                final long backoff = Math.min(MAX_BACKOFF_MILLIS, BACKOFF_MILLIS << Math.min(attempt, 16));
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry " + def.url());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return If the failure may not happen again, such as a timeout or server error, and so is worth retrying
+     */
+    public static boolean isTransient(IOException exception) {
+        return switch (exception) {
+            case HttpStatusException status -> status.getStatusCode() == 429 || status.getStatusCode() >= 500;
+            case UnsupportedMimeTypeException ignored -> false;
+            case UnknownHostException ignored -> false;
+            case MalformedURLException ignored -> false;
+            // How the HttpClient reports a host that does not resolve
+            case ConnectException connect when connect.getCause() instanceof UnresolvedAddressException -> false;
+            case InterruptedIOException interrupted -> interrupted instanceof SocketTimeoutException;
+            default -> true;
+        };
+    }
+
+    /**
+     * @return If the host could not be connected to or did not respond in time, which are the only failures that count
+     * towards its {@link CircuitBreaker circuit breaker}. An error status is about a single page, a host serving a few
+     * broken pages is still up
+     */
+    public static boolean isHostFailure(IOException exception) {
+        return switch (exception) {
+            case ConnectException connect -> !(connect.getCause() instanceof UnresolvedAddressException);
+            case NoRouteToHostException ignored -> true;
+            case HttpTimeoutException ignored -> true;
+            case SocketTimeoutException ignored -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return The url with its scheme and host lower-cased, default port, fragment, and redundant path segments removed,
+     * feeds with the same page are fetched together
+     */
+    public static String pageOf(String url) {
+        try {
+            final URI uri = new URI(url).normalize();
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return url;
+            }
+            final String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            final int port = uri.getPort() == 80 && scheme.equals("http") || uri.getPort() == 443 && scheme.equals("https") ? -1 : uri.getPort();
+            final String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + (port < 0 ? "" : ":" + port) + path + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+    private List<Result> attempt(List<FeedDef> defs, FeedMetrics metrics, long time) throws IOException {
+        final FeedDef def = defs.getFirst();
+        final List<FetchMeta> previous = new ArrayList<>(defs.size());
+        for (FeedDef feed : defs) {
+            previous.add(FetchMeta.read(feed, state));
+        }
+        // A 304 would have to hold for every feed, so the site is only requested conditionally if they all last saw the same version
+        final FetchMeta first = previous.getFirst();
+        final boolean conditional = previous.stream().allMatch(meta -> Objects.equals(meta.etag(), first.etag()) && Objects.equals(meta.lastModified(), first.lastModified()));
+        final HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(new URI(def.url()));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new MalformedURLException("Invalid url %s: %s".formatted(def.url(), e.getMessage()));
+        }
+        request.timeout(def.readTimeout())
+                .header("User-Agent", HttpConnection.DEFAULT_UA)
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+                .header("Accept-Encoding", "gzip, deflate");
+        if (conditional && first.etag() != null) {
+            request.header("If-None-Match", first.etag());
+        }
+        if (conditional && first.lastModified() != null) {
+            request.header("If-Modified-Since", first.lastModified());
+        }
+
+        final long started = System.nanoTime();
+        final HttpResponse<InputStream> response;
+        try {
+            response = client(def.connectTimeout()).send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + def.url());
+        }
+
+        // The request's timeout only covers receiving the headers, the body must be read within the rest of the read timeout
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final long remaining = def.readTimeout().toNanos() - (System.nanoTime() - started);
+        final ScheduledFuture<?> timeout = TIMEOUTS.schedule(() -> {
+            timedOut.set(true);
+            try {
+                response.body().close();
+            } catch (IOException ignored) {}
+        }, Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        try (InputStream raw = response.body()) {
+            return handle(defs, previous, response, raw, metrics, time);
+        } catch (IOException e) {
+            if (timedOut.get()) {
+                throw new HttpTimeoutException("Reading %s took longer than %s".formatted(def.url(), def.readTimeout()));
+            }
+            throw e;
+        } finally {
+            timeout.cancel(false);
+        }
+    }
+
+    private List<Result> handle(List<FeedDef> defs, List<FetchMeta> previous, HttpResponse<InputStream> response, InputStream raw, FeedMetrics metrics, long time) throws IOException {
+        final FeedDef def = defs.getFirst();
+        final int status = response.statusCode();
+        if (status == 304) {
+            metrics.lap(FeedMetrics.Stage.FETCH, time);
+            return Collections.nCopies(defs.size(), Result.NotModified.INSTANCE);
+        }
+        if (status < 200 || status >= 300) {
+            throw new HttpStatusException("HTTP error fetching URL", status, response.uri().toString());
+        }
+        // Content types are checked once it is known the response is not a 304, which often lacks a content type
+        final String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        if (contentType != null && !contentType.startsWith("text/") && !XML_CONTENT_TYPE.matcher(contentType).matches()) {
+            throw new UnsupportedMimeTypeException("Unhandled content type. Must be text/*, */xml, or */*+xml", contentType, def.url());
+        }
+        final String charset = charset(contentType);
+        final String etag = response.headers().firstValue("ETag").orElse(null);
+        final String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        // Relative links are resolved against where any redirects ended up
+        final String baseUri = response.uri().toString();
+
+        // Counts bytes as they came over the wire, before decompression
+        final CountingInputStream wire = new CountingInputStream(raw);
+        final InputStream body = new TruncatingInputStream(decode(wire, response.headers().firstValue("Content-Encoding").orElse("")), def.maxBodySize());
+
+        // A partial parse only holds what one feed's post definition looks for, so shared sites are always fully parsed
+        if (defs.size() == 1 && def.streamParse()) {
+            // Downloading and parsing are interleaved, the time to the first byte is counted as fetching and the rest as parsing
+            time = metrics.lap(FeedMetrics.Stage.FETCH, time);
+            final Document site = streamParse(body, charset, baseUri, def);
+            metrics.lap(FeedMetrics.Stage.PARSE, time);
+            metrics.bytes(wire.count);
+            // The body is never fully read, so it cannot be hashed
+            return List.of(new Result.Fetched(site, new FetchMeta(etag, lastModified, null, previous.getFirst().postsHash(), null), null));
+        }
+
+        final byte[] bytes = body.readAllBytes();
+        time = metrics.lap(FeedMetrics.Stage.FETCH, time);
+        metrics.bytes(wire.count);
+        final String bodyHash = FetchMeta.hash(bytes);
+        final List<Result> results = new ArrayList<>(defs.size());
+        @Nullable Document site = null;
+        for (int i = 0 ; i < defs.size() ; i++) {
+            final FetchMeta last = previous.get(i);
+            final FetchMeta meta = new FetchMeta(etag, lastModified, bodyHash, last.postsHash(), last.sentinel());
+            if (bodyHash.equals(last.bodyHash())) {
+                // The headers may have changed even though the content did not, keep them up to date for the next fetch
+                if (!meta.equals(last)) {
+                    state.update(defs.get(i), meta::writeTo);
+                }
+                results.add(Result.NotModified.INSTANCE);
+                continue;
+            }
+            if (defs.get(i).sentinel() && last.sentinel() != null && last.sentinel().matches(bytes)) {
+                time = metrics.lap(FeedMetrics.Stage.PARSE, time);
+                results.add(new Result.Unparsed(meta));
+                continue;
+            }
+            if (site == null) {
+                // Without a declared charset Jsoup checks for a byte order mark or <meta> charset, as it would for a fetch of its own
+                site = Jsoup.parse(new ByteArrayInputStream(bytes), charset, baseUri);
+                time = metrics.lap(FeedMetrics.Stage.PARSE, time);
+            }
+            results.add(new Result.Fetched(site, meta, bytes));
+        }
+        return results;
+    }
+
+    /**
+     * One client per connect timeout, as that is set on the client rather than the request. Clients pool connections,
+     * so feeds on the same host reuse connections, and TLS sessions, and share a single connection over HTTP/2
+     */
+    private HttpClient client(Duration connectTimeout) {
+        return clients.computeIfAbsent(connectTimeout, timeout -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                .build());
+    }
+
+    /**
+     * Brotli is not advertised as the JDK has no decoder for it
+     */
+    private static InputStream decode(InputStream body, String encoding) throws IOException {
+        return switch (encoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(body, 8192);
+            case "deflate" -> new InflaterInputStream(body);
+            case "", "identity" -> body;
+            default -> throw new IOException("Unsupported content encoding " + encoding);
+        };
+    }
+
+    @Nullable
+    private static String charset(@Nullable String contentType) {
+        if (contentType != null) {
+            final Matcher matcher = CHARSET.matcher(contentType);
+            if (matcher.find()) {
+                final String charset = matcher.group(1).trim().replace("\"", "");
+                if (Charset.isSupported(charset)) {
+                    return charset;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the response only until every query of the feed's post definition has a match, or the body has been
+     * fully read. The resulting document is incomplete, but contains everything the post definition will look for
+     * <p>
+     * Only the response's declared charset is used, sniffing {@code <meta>} charsets would mean buffering the start of the body
+     */
+    private static Document streamParse(InputStream body, @Nullable String charset, String baseUri, FeedDef def) throws IOException {
+        try (StreamParser parser = new StreamParser(Parser.htmlParser()).parse(new BufferedReader(new InputStreamReader(body, charset == null ? StandardCharsets.UTF_8 : Charset.forName(charset))), baseUri)) {
+            for (Query query : def.posts().queries()) {
+                parser.selectFirst(query.evaluator());
+            }
+            return parser.document();
+        }
+    }
+
+    /**
+     * Ends the stream after the limit, as Jsoup does with bodies that are too large
+     */
+    private static final class TruncatingInputStream extends FilterInputStream {
+
+        private final int limit;
+        private long remaining;
+
+        /**
+         * @param limit The number of bytes to read, 0 for unlimited
+         */
+        TruncatingInputStream(InputStream in, int limit) {
+            super(in);
+            this.limit = limit;
+            remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (limit > 0 && remaining <= 0) {
+                return -1;
+            }
+            final int read = super.read();
+            if (read >= 0) {
+                remaining--;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (limit > 0) {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                length = (int) Math.min(length, remaining);
+            }
+            final int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            final int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    public sealed interface Result permits Result.NotModified, Result.Unparsed, Result.Fetched {
+
+        /**
+         * The site has not changed since it was last processed
+         */
+        enum NotModified implements Result {
+            INSTANCE
+        }
+
+        /**
+         * The site has changed, but its latest post {@link Sentinel#matches(byte[]) is the same}, so it was not parsed
+         *
+         * @param meta The metadata to {@link FetchMeta#writeTo(com.google.gson.JsonObject) store}
+         */
+        record Unparsed(FetchMeta meta) implements Result {}
+
+        /**
+         * The site has changed, or was never processed
+         * <p>
+         * The site may be shared with other feeds and must not be modified
+         *
+         * @param meta The metadata to {@link FetchMeta#writeTo(com.google.gson.JsonObject) store} once the site has been processed
+         * @param body The site's raw body, or null if it was {@link FeedDef#streamParse() never fully read}
+         */
+        record Fetched(Document site, FetchMeta meta, byte @Nullable [] body) implements Result {}
+    }
+}
@@ -0,0 +1,139 @@
+package com.notenoughmail.rssifier.fetch;
+
+import com.notenoughmail.rssifier.components.FeedDef;
+
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Groups fetches by host, limiting how many requests to a single host may be in flight at once and how soon
+ * after each other they may start. Fetches to different hosts never wait on each other
+ */
+public class HostScheduler {
+
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Blocks until the feed's host permits another request, the returned slot must be closed once the request is done
+     *
+     * @throws InterruptedIOException If interrupted while waiting, in which case no slot is taken and the thread's
+     *                                interrupt flag is set
+     */
+    public Slot acquire(FeedDef def) throws InterruptedIOException {
+        final String name = hostOf(def.url());
+        final Host host = hosts.computeIfAbsent(name, key -> new Host());
+        try {
+            host.acquire(def.hostConnections(), def.hostGap());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on " + name);
+        }
+        return host::release;
+    }
+
+    public static String hostOf(String url) {
+        try {
+            final String host = URI.create(url).getHost();
+            if (host != null) {
+                return host.toLowerCase(Locale.ROOT);
+            }
+        } catch (IllegalArgumentException ignored) {}
+        return url;
+    }
+
+    /**
+     * @return A snapshot of the statistics of every host that has been queried, sorted by host name
+     */
+    public Map<String, Stats> stats() {
+        final Map<String, Stats> stats = new TreeMap<>();
+        hosts.forEach((name, host) -> stats.put(name, host.stats()));
+        return stats;
+    }
+
+    @FunctionalInterface
+    public interface Slot extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * @param requests    The number of requests started to the host
+     * @param queueDepth  The number of fetches currently waiting on the host
+     * @param maxQueue    The largest number of fetches that have waited on the host at once
+     * @param totalWait   The summed time fetches spent waiting on the host
+     * @param maxWait     The longest time a single fetch spent waiting on the host
+     */
+    public record Stats(int requests, int queueDepth, int maxQueue, Duration totalWait, Duration maxWait) {
+
+        @Override
+        public String toString() {
+            return "%d requests, %d queued (max %d), waited %dms total (max %dms)".formatted(requests, queueDepth, maxQueue, totalWait.toMillis(), maxWait.toMillis());
+        }
+    }
+
+    private static final class Host {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private int inFlight, waiting, maxWaiting, requests;
+        private long nextStart = System.nanoTime(), totalWait, maxWait;
+
+        void acquire(int limit, Duration gap) throws InterruptedException {
+            lock.lock();
+            try {
+                final long start = System.nanoTime();
+                waiting++;
+                maxWaiting = Math.max(maxWaiting, waiting);
+                try {
+                    while (true) {
+                        if (inFlight < limit) {
+                            final long delay = nextStart - System.nanoTime();
+                            if (delay <= 0) {
+                                break;
+                            }
+                            changed.awaitNanos(delay);
+                        } else {
+                            changed.await();
+                        }
+                    }
+                } finally {
+                    waiting--;
+                }
+                final long now = System.nanoTime();
+                inFlight++;
+                requests++;
+                nextStart = now + gap.toNanos();
+                totalWait += now - start;
+                maxWait = Math.max(maxWait, now - start);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Stats stats() {
+            lock.lock();
+            try {
+                return new Stats(requests, waiting, maxWaiting, Duration.ofNanos(totalWait), Duration.ofNanos(maxWait));
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.notenoughmail.rssifier.fetch;
+
+import com.google.gson.JsonObject;
+import com.notenoughmail.rssifier.components.PostDef;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jspecify.annotations.Nullable;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The latest post of a single post feed as it appeared in the raw bytes of its site, used to tell that a site which
+ * has changed still has the same latest post without parsing it
+ * <p>
+ * A site matches if both the post's link and title are {@link #find(byte[], byte[], boolean) found} in its bytes, as a
+ * whole attribute value and a whole element's text, with the same number of {@code href} attributes before each of
+ * them as when the sentinel was made. A new post is almost always placed before the old one and brings links of its
+ * own, so it changes the counts. Anything else that adds or removes a link before the post, or changes the post
+ * itself, only means the site is parsed as usual
+ *
+ * @param link       The permalink's {@code href} as written in the site
+ * @param linkHrefs  The number of {@code href} attributes before the first occurrence of the link
+ * @param title      The post's title
+ * @param titleHrefs The number of {@code href} attributes before the first occurrence of the title
+ * @param charset    The charset the site was decoded with, which the link and title are encoded with to be found
+ */
+public record Sentinel(String link, int linkHrefs, String title, int titleHrefs, String charset) {
+
+    private static final byte[] HREF = "href".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @param posts The definition of a single post feed
+     * @param site  The site, as parsed from the body
+     * @param body  The site's raw body
+     * @return The sentinel of the site's post, or null if its link or title is not written in the body as-is, such as
+     * a title containing entities or other elements, or if the site's charset is not a superset of ASCII
+     */
+    @Nullable
+    public static Sentinel of(PostDef posts, Document site, byte[] body) {
+        final Charset charset = site.charset();
+        if (!Arrays.equals(HREF, "href".getBytes(charset))) {
+            return null;
+        }
+        final Element titleElm = site.selectFirst(posts.title().evaluator());
+        final Element linkElm = site.selectFirst(posts.permalink().evaluator());
+        if (titleElm == null || linkElm == null) {
+            return null;
+        }
+        final String title = titleElm.wholeText().trim();
+        final String link = linkElm.attr("href").trim();
+        if (title.isEmpty() || link.isEmpty()) {
+            return null;
+        }
+        final int linkAt = find(body, link.getBytes(charset), false);
+        final int titleAt = find(body, title.getBytes(charset), true);
+        if (linkAt < 0 || titleAt < 0) {
+            return null;
+        }
+        final int[] hrefs = hrefsBefore(body, linkAt, titleAt);
+        return new Sentinel(link, hrefs[0], title, hrefs[1], charset.name());
+    }
+
+    /**
+     * @return If the body's latest post is the one the sentinel was made from
+     */
+    public boolean matches(byte[] body) {
+        final Charset decoded;
+        try {
+            decoded = Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        final int linkAt = find(body, link.getBytes(decoded), false);
+        if (linkAt < 0) {
+            return false;
+        }
+        final int titleAt = find(body, title.getBytes(decoded), true);
+        if (titleAt < 0) {
+            return false;
+        }
+        final int[] hrefs = hrefsBefore(body, linkAt, titleAt);
+        return hrefs[0] == linkHrefs && hrefs[1] == titleHrefs;
+    }
+
+    @Nullable
+    static Sentinel read(JsonObject json) {
+        if (json.has("link") && json.has("link_hrefs") && json.has("title") && json.has("title_hrefs") && json.has("charset")) {
+            return new Sentinel(
+                    json.get("link").getAsString(),
+                    json.get("link_hrefs").getAsInt(),
+                    json.get("title").getAsString(),
+                    json.get("title_hrefs").getAsInt(),
+                    json.get("charset").getAsString()
+            );
+        }
+        return null;
+    }
+
+    JsonObject toJson() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("link", link);
+        json.addProperty("link_hrefs", linkHrefs);
+        json.addProperty("title", title);
+        json.addProperty("title_hrefs", titleHrefs);
+        json.addProperty("charset", charset);
+        return json;
+    }
+
+    /**
+     * Finds the needle as a whole value, not as part of a longer link or title: a link must be an attribute's value,
+     * after a quote or {@code =} and before a quote, whitespace, or {@code >}, and a title must be an element's text,
+     * between a {@code >} and a {@code <}, ignoring whitespace
+     * <p>
+     * Uses Boyer-Moore-Horspool, which skips most of the body's bytes for needles as long as a link or title
+     *
+     * @return The index of the first whole occurrence of the needle in the bytes, or -1 if there is none
+     */
+    static int find(byte[] bytes, byte[] needle, boolean text) {
+        final int length = needle.length;
+        if (length == 0 || length > bytes.length) {
+            return -1;
+        }
+        final int[] skip = new int[256];
+        Arrays.fill(skip, length);
+        for (int i = 0 ; i < length - 1 ; i++) {
+            skip[needle[i] & 0xFF] = length - 1 - i;
+        }
+        for (int at = 0 ; at <= bytes.length - length ; at += skip[bytes[at + length - 1] & 0xFF]) {
+            int i = length - 1;
+            while (i >= 0 && bytes[at + i] == needle[i]) {
+                i--;
+            }
+            if (i < 0 && (text ? isText(bytes, at, length) : isValue(bytes, at, length))) {
+                return at;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isValue(byte[] bytes, int at, int length) {
+        final int before = at - 1, after = at + length;
+        if (before < 0 || bytes[before] != '"' && bytes[before] != '\'' && bytes[before] != '=') {
+            return false;
+        }
+        return after >= bytes.length || bytes[after] == '"' || bytes[after] == '\'' || bytes[after] == '>' || isWhitespace(bytes[after]);
+    }
+
+    private static boolean isText(byte[] bytes, int at, int length) {
+        int before = at - 1, after = at + length;
+        while (before >= 0 && isWhitespace(bytes[before])) {
+            before--;
+        }
+        while (after < bytes.length && isWhitespace(bytes[after])) {
+            after++;
+        }
+        return before >= 0 && bytes[before] == '>' && (after >= bytes.length || bytes[after] == '<');
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    /**
+     * Counts in a single pass up to the later of the two indices, only the body before it is read
+     *
+     * @return The number of {@code href} attributes, in any case and with any whitespace before their {@code =}, which
+     * start before each of the two indices
+     */
+    static int[] hrefsBefore(byte[] bytes, int first, int second) {
+        final int before = hrefs(bytes, 0, Math.min(first, second));
+        final int between = before + hrefs(bytes, Math.min(first, second), Math.max(first, second));
+        return first <= second ? new int[] {before, between} : new int[] {between, before};
+    }
+
+    private static int hrefs(byte[] bytes, int from, int to) {
+        int count = 0;
+        for (int at = from ; at < to ; at++) {
+            if ((bytes[at] | 0x20) != 'h' || at + HREF.length > bytes.length) {
+                continue;
+            }
+            int i = 1;
+            while (i < HREF.length && (bytes[at + i] | 0x20) == HREF[i]) {
+                i++;
+            }
+            if (i < HREF.length) {
+                continue;
+            }
+            int next = at + HREF.length;
+            while (next < bytes.length && isWhitespace(bytes[next])) {
+                next++;
+            }
+            if (next < bytes.length && bytes[next] == '=') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
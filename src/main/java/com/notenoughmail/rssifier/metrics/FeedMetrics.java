@@ -0,0 +1,153 @@
+package com.notenoughmail.rssifier.metrics;
+
+import com.notenoughmail.rssifier.components.FeedDef;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.NodeTraversor;
+
+import java.util.Locale;
+
+/**
+ * Where the time of a single feed's update went, and how large the feed's site was
+ * <p>
+ * Only ever touched by the thread handling the feed
+ */
+public final class FeedMetrics {
+
+    private final FeedDef def;
+    private final long start = System.nanoTime();
+    private final long[] stages = new long[Stage.values().length];
+    private long total, bytes, nodes;
+    private int newPosts;
+    private boolean shared;
+    private Outcome outcome = Outcome.SKIPPED;
+
+    public FeedMetrics(FeedDef def) {
+        this.def = def;
+    }
+
+    public long start() {
+        return start;
+    }
+
+    /**
+     * Adds the time since {@code since} to the stage
+     *
+     * @return The current {@link System#nanoTime() time}, to be passed as the start of the next stage
+     */
+    public long lap(Stage stage, long since) {
+        final long now = System.nanoTime();
+        stages[stage.ordinal()] += now - since;
+        return now;
+    }
+
+    public void bytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public void nodes(Document site) {
+        final int[] count = new int[1];
+        NodeTraversor.traverse((node, depth) -> count[0]++, site);
+        nodes = count[0];
+    }
+
+    /**
+     * @param shared If the feed's site was fetched for another feed on the same page, its fetch and parse are recorded there
+     */
+    public void shared(boolean shared) {
+        this.shared = shared;
+    }
+
+    public void outcome(Outcome outcome) {
+        this.outcome = outcome;
+    }
+
+    public void newPosts(int newPosts) {
+        this.newPosts = newPosts;
+        outcome = newPosts > 0 ? Outcome.UPDATED : Outcome.UNCHANGED;
+    }
+
+    public void finish() {
+        total = System.nanoTime() - start;
+    }
+
+    public FeedDef def() {
+        return def;
+    }
+
+    public long nanos(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public boolean shared() {
+        return shared;
+    }
+
+    /**
+     * @return The number of bytes of the site's body that were read
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of nodes in the parsed site, 0 if it was not parsed or was {@link #shared() shared}
+     */
+    public long nodes() {
+        return nodes;
+    }
+
+    public int newPosts() {
+        return newPosts;
+    }
+
+    public Outcome outcome() {
+        return outcome;
+    }
+
+    public enum Stage {
+        /** Checking the feed's days of the week and time between queries */
+        SCHEDULE,
+        /** Waiting on the feed's host and the global concurrency limit */
+        WAIT,
+        /** Connecting and downloading the site */
+        FETCH,
+        PARSE,
+        /** Loading the feed's file */
+        LOAD,
+        /** Finding each post's fields and building its item */
+        EXTRACT,
+        /** Checking if posts are new */
+        DEDUP,
+        /** Adding posts to the feed and serializing it */
+        SERIALIZE,
+        /** Syncing the feed's file to disk and replacing the old one */
+        WRITE;
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public enum Outcome {
+        /** The feed was not due */
+        SKIPPED,
+        /** The feed's host has failed too many times in a row and is being skipped */
+        CIRCUIT_OPEN,
+        /** The site had not changed since it was last processed */
+        NOT_MODIFIED,
+        /** The site had changed, but its {@link com.notenoughmail.rssifier.fetch.Sentinel sentinel} showed its latest post was the same, so it was not parsed */
+        PARSE_SKIPPED,
+        /** The site was processed, but had no new posts */
+        UNCHANGED,
+        UPDATED,
+        FAILED;
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
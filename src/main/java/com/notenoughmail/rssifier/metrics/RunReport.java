@@ -0,0 +1,220 @@
+package com.notenoughmail.rssifier.metrics;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.notenoughmail.rssifier.feed.FeedWriter;
+import com.notenoughmail.rssifier.feed.StateStore;
+import com.notenoughmail.rssifier.fetch.HostScheduler;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The metrics of every feed handled in a run, written as json and csv for trending slow or heavy sites, and optionally
+ * in the Prometheus text format for a node exporter's textfile collector
+ * <p>
+ * Each run replaces the previous run's report
+ */
+public final class RunReport {
+
+    private final LocalDateTime started = LocalDateTime.now();
+    private final long start = System.nanoTime();
+    private final long startAllocated = allocatedBytes();
+    private long duration, allocated;
+    private List<FeedMetrics> feeds = List.of();
+    private Map<String, HostScheduler.Stats> hosts = Map.of();
+
+    public void finish(List<FeedMetrics> feeds, Map<String, HostScheduler.Stats> hosts) {
+        duration = System.nanoTime() - start;
+        // Feeds are handled on virtual threads, which cannot be measured on their own, but whose allocations are counted
+        // against their carriers and so are part of the total
+        final long endAllocated = allocatedBytes();
+        allocated = startAllocated < 0 || endAllocated < 0 ? -1 : endAllocated - startAllocated;
+        this.feeds = feeds;
+        this.hosts = hosts;
+    }
+
+    /**
+     * @param shard The shard the run was made by, if running sharded. Each shard writes its own files and labels its
+     *              metrics with the shard, so the metrics of every shard can be collected together
+     */
+    public void write(Path feedsPath, boolean report, boolean prometheus, @Nullable Integer shard) throws IOException {
+        final String suffix = shard == null ? "" : " " + shard;
+        if (report) {
+            FeedWriter.write(feedsPath.resolve("Rssifier Report%s.json".formatted(suffix)), new GsonBuilder().setPrettyPrinting().create().toJson(json()));
+            FeedWriter.write(feedsPath.resolve("Rssifier Report%s.csv".formatted(suffix)), csv());
+        }
+        if (prometheus) {
+            FeedWriter.write(feedsPath.resolve("Rssifier Metrics%s.prom".formatted(suffix)), prometheus(shard == null ? "" : "shard=\"%d\"".formatted(shard)));
+        }
+    }
+
+    private JsonObject json() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("started", DateTimeFormatter.ISO_DATE_TIME.format(started));
+        json.addProperty("duration_ms", millis(duration));
+        json.addProperty("allocated_bytes", allocated);
+        json.addProperty("fetches_saved", fetchesSaved());
+        json.addProperty("parses_skipped", parsesSkipped());
+        final JsonArray feedsJson = new JsonArray();
+        for (FeedMetrics feed : feeds) {
+            final JsonObject feedJson = new JsonObject();
+            feedJson.addProperty("feed", StateStore.name(feed.def()));
+            feedJson.addProperty("title", feed.def().title());
+            feedJson.addProperty("url", feed.def().url());
+            feedJson.addProperty("outcome", feed.outcome().key());
+            feedJson.addProperty("shared", feed.shared());
+            feedJson.addProperty("new_posts", feed.newPosts());
+            feedJson.addProperty("total_ms", millis(feed.total()));
+            final JsonObject stages = new JsonObject();
+            for (FeedMetrics.Stage stage : FeedMetrics.Stage.values()) {
+                stages.addProperty(stage.key(), millis(feed.nanos(stage)));
+            }
+            feedJson.add("stages_ms", stages);
+            feedJson.addProperty("bytes", feed.bytes());
+            feedJson.addProperty("nodes", feed.nodes());
+            feedsJson.add(feedJson);
+        }
+        json.add("feeds", feedsJson);
+        final JsonObject hostsJson = new JsonObject();
+        hosts.forEach((host, stats) -> {
+            final JsonObject hostJson = new JsonObject();
+            hostJson.addProperty("requests", stats.requests());
+            hostJson.addProperty("max_queue", stats.maxQueue());
+            hostJson.addProperty("total_wait_ms", stats.totalWait().toMillis());
+            hostJson.addProperty("max_wait_ms", stats.maxWait().toMillis());
+            hostsJson.add(host, hostJson);
+        });
+        json.add("hosts", hostsJson);
+        return json;
+    }
+
+    private long fetchesSaved() {
+        return feeds.stream().filter(FeedMetrics::shared).count();
+    }
+
+    private long parsesSkipped() {
+        return feeds.stream().filter(feed -> feed.outcome() == FeedMetrics.Outcome.PARSE_SKIPPED).count();
+    }
+
+    private String csv() {
+        final StringBuilder builder = new StringBuilder("feed,outcome,shared,new_posts,total_ms");
+        for (FeedMetrics.Stage stage : FeedMetrics.Stage.values()) {
+            builder.append(',').append(stage.key()).append("_ms");
+        }
+        builder.append(",bytes,nodes\n");
+        for (FeedMetrics feed : feeds) {
+            builder.append(csvField(StateStore.name(feed.def())))
+                    .append(',').append(feed.outcome().key())
+                    .append(',').append(feed.shared())
+                    .append(',').append(feed.newPosts())
+                    .append(',').append(millis(feed.total()));
+            for (FeedMetrics.Stage stage : FeedMetrics.Stage.values()) {
+                builder.append(',').append(millis(feed.nanos(stage)));
+            }
+            builder.append(',').append(feed.bytes())
+                    .append(',').append(feed.nodes())
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    private String prometheus(String shard) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("# HELP rssifier_run_duration_seconds Duration of the last run\n")
+                .append("# TYPE rssifier_run_duration_seconds gauge\n")
+                .append("rssifier_run_duration_seconds").append(labels("", shard)).append(' ').append(seconds(duration)).append('\n');
+        builder.append("# HELP rssifier_run_allocated_bytes Bytes allocated during the last run, -1 if unmeasurable\n")
+                .append("# TYPE rssifier_run_allocated_bytes gauge\n")
+                .append("rssifier_run_allocated_bytes").append(labels("", shard)).append(' ').append(allocated).append('\n');
+        builder.append("# HELP rssifier_run_fetches_saved Fetches saved in the last run by feeds sharing a page with another feed\n")
+                .append("# TYPE rssifier_run_fetches_saved gauge\n")
+                .append("rssifier_run_fetches_saved").append(labels("", shard)).append(' ').append(fetchesSaved()).append('\n');
+        builder.append("# HELP rssifier_run_parses_skipped Changed sites not parsed in the last run as their feed's sentinel showed no new post\n")
+                .append("# TYPE rssifier_run_parses_skipped gauge\n")
+                .append("rssifier_run_parses_skipped").append(labels("", shard)).append(' ').append(parsesSkipped()).append('\n');
+
+        builder.append("# HELP rssifier_feed_stage_seconds Time each feed spent in each stage of the last run\n")
+                .append("# TYPE rssifier_feed_stage_seconds gauge\n");
+        for (FeedMetrics feed : feeds) {
+            for (FeedMetrics.Stage stage : FeedMetrics.Stage.values()) {
+                builder.append("rssifier_feed_stage_seconds").append(labels("feed=\"%s\",stage=\"%s\"".formatted(label(feed), stage.key()), shard)).append(' ')
+                        .append(seconds(feed.nanos(stage))).append('\n');
+            }
+        }
+        gauge(builder, shard, "rssifier_feed_seconds", "Total time spent on each feed in the last run", feed -> seconds(feed.total()));
+        gauge(builder, shard, "rssifier_feed_bytes", "Bytes of each feed's site read in the last run", feed -> Long.toString(feed.bytes()));
+        gauge(builder, shard, "rssifier_feed_nodes", "Nodes in each feed's parsed site in the last run", feed -> Long.toString(feed.nodes()));
+        gauge(builder, shard, "rssifier_feed_new_posts", "New posts found for each feed in the last run", feed -> Integer.toString(feed.newPosts()));
+        builder.append("# HELP rssifier_feed_outcome The outcome of each feed in the last run\n")
+                .append("# TYPE rssifier_feed_outcome gauge\n");
+        for (FeedMetrics feed : feeds) {
+            for (FeedMetrics.Outcome outcome : FeedMetrics.Outcome.values()) {
+                builder.append("rssifier_feed_outcome").append(labels("feed=\"%s\",outcome=\"%s\"".formatted(label(feed), outcome.key()), shard)).append(' ')
+                        .append(feed.outcome() == outcome ? 1 : 0).append('\n');
+            }
+        }
+
+        builder.append("# HELP rssifier_host_requests_total Requests started to each host\n")
+                .append("# TYPE rssifier_host_requests_total counter\n");
+        hosts.forEach((host, stats) -> builder.append("rssifier_host_requests_total").append(labels("host=\"%s\"".formatted(escape(host)), shard)).append(' ').append(stats.requests()).append('\n'));
+        builder.append("# HELP rssifier_host_wait_seconds_total Time fetches spent waiting on each host\n")
+                .append("# TYPE rssifier_host_wait_seconds_total counter\n");
+        hosts.forEach((host, stats) -> builder.append("rssifier_host_wait_seconds_total").append(labels("host=\"%s\"".formatted(escape(host)), shard)).append(' ').append(seconds(stats.totalWait().toNanos())).append('\n'));
+        return builder.toString();
+    }
+
+    private void gauge(StringBuilder builder, String shard, String name, String help, Function<FeedMetrics, String> value) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" gauge\n");
+        for (FeedMetrics feed : feeds) {
+            builder.append(name).append(labels("feed=\"%s\"".formatted(label(feed)), shard)).append(' ').append(value.apply(feed)).append('\n');
+        }
+    }
+
+    /**
+     * @return The label set of both sets of labels, either of which may be empty
+     */
+    private static String labels(String labels, String shard) {
+        if (labels.isEmpty()) {
+            return shard.isEmpty() ? "" : "{" + shard + "}";
+        }
+        return "{" + labels + (shard.isEmpty() ? "" : "," + shard) + "}";
+    }
+
+    private static String label(FeedMetrics feed) {
+        return escape(StateStore.name(feed.def()));
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String csvField(String field) {
+        return field.contains(",") || field.contains("\"") ? '"' + field.replace("\"", "\"\"") + '"' : field;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000L / 1000d;
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * @return The bytes allocated by every thread since the JVM started, including threads which have ended, or -1 if
+     * the JVM cannot measure this
+     */
+    private static long allocatedBytes() {
+        return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemoryEnabled() ? threads.getTotalThreadAllocatedBytes() : -1;
+    }
+}
@@ -0,0 +1,222 @@
+package com.notenoughmail.rssifier.serve;
+
+import com.notenoughmail.rssifier.fetch.FetchMeta;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jspecify.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves feed files over HTTP while running as a daemon, so feed readers can poll Rssifier directly
+ * <p>
+ * Each feed's latest bytes are kept in memory, along with their gzipped form, an ETag for each form, and their
+ * Last-Modified time, and are only replaced when the feed is {@link #publish(Path, byte[]) published} after being
+ * written. Requests are answered from memory, most with a 304
+ */
+public final class FeedServer {
+
+    private static final String CONTENT_TYPE = "application/rss+xml; charset=utf-8";
+
+    private final HttpServer server;
+    // Keyed by file name, which is also the path feeds are served at
+    private final Map<String, Entry> feeds = new ConcurrentHashMap<>();
+
+    private FeedServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Starts serving on the address and port, until the process exits
+     */
+    public static FeedServer start(String address, int port) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        final FeedServer feedServer = new FeedServer(server);
+        server.createContext("/", feedServer::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return feedServer;
+    }
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Reads the feed's file and serves its content from now on, for files which were not just written by Rssifier
+     */
+    public void publish(Path file) throws IOException {
+        final byte[] bytes;
+        final Instant modified;
+        try {
+            bytes = Files.readAllBytes(file);
+            modified = Files.getLastModifiedTime(file).toInstant();
+        } catch (NoSuchFileException e) {
+            feeds.remove(file.getFileName().toString());
+            return;
+        }
+        publish(file, bytes, modified);
+    }
+
+    /**
+     * Serves the bytes as the feed's content from now on, should be called whenever the file is written
+     *
+     * @param bytes The bytes just written to the file
+     */
+    public void publish(Path file, byte[] bytes) throws IOException {
+        publish(file, bytes, Instant.now());
+    }
+
+    private void publish(Path file, byte[] bytes, Instant modified) throws IOException {
+        final String name = file.getFileName().toString();
+        final String hash = FetchMeta.hash(bytes);
+        final String etag = "\"%s\"".formatted(hash);
+        final Entry current = feeds.get(name);
+        if (current == null || !current.etag.equals(etag)) {
+            Instant lastModified = modified.truncatedTo(ChronoUnit.SECONDS);
+            // Readers only sending If-Modified-Since must still see a change made within the same second
+            if (current != null && !lastModified.isAfter(current.lastModified)) {
+                lastModified = current.lastModified.plusSeconds(1);
+            }
+            // Strong validators must differ between content codings, or caches could serve one body for the other
+            feeds.put(name, new Entry(bytes, gzip(bytes), etag, "\"%s-gzip\"".formatted(hash), lastModified));
+        }
+    }
+
+    /**
+     * Stops serving any feed which is not one of the files
+     */
+    public void retain(Collection<Path> files) {
+        final Set<String> names = files.stream().map(file -> file.getFileName().toString()).collect(Collectors.toSet());
+        feeds.keySet().retainAll(names);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            final String method = exchange.getRequestMethod();
+            final boolean head = method.equals("HEAD");
+            if (!head && !method.equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final Entry entry = feeds.get(exchange.getRequestURI().getPath().substring(1));
+            if (entry == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            final Headers request = exchange.getRequestHeaders();
+            final Headers response = exchange.getResponseHeaders();
+            final boolean gzip = acceptsGzip(request.getFirst("Accept-Encoding"));
+            final String etag = gzip ? entry.gzippedEtag : entry.etag;
+            response.set("ETag", etag);
+            response.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(entry.lastModified.atZone(ZoneOffset.UTC)));
+            response.set("Vary", "Accept-Encoding");
+            response.set("Cache-Control", "no-cache");
+            if (notModified(etag, entry.lastModified, request)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            final byte[] body = gzip ? entry.gzipped : entry.bytes;
+            response.set("Content-Type", CONTENT_TYPE);
+            if (gzip) {
+                response.set("Content-Encoding", "gzip");
+            }
+            if (head) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since, as the latter only has a resolution of seconds
+     *
+     * @param etag The tag of the content coding being served
+     */
+    private static boolean notModified(String etag, Instant lastModified, Headers request) {
+        final String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                final String trimmed = tag.trim();
+                if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final String ifModifiedSince = request.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                return !lastModified.isAfter(ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+            } catch (DateTimeParseException ignored) {}
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            final String[] parts = coding.split(";");
+            if (parts[0].trim().equals("gzip")) {
+                for (int i = 1 ; i < parts.length ; i++) {
+                    final String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException ignored) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param lastModified When the file was written, to the second as that is all Last-Modified can hold
+     */
+    private record Entry(byte[] bytes, byte[] gzipped, String etag, String gzippedEtag, Instant lastModified) {}
+}
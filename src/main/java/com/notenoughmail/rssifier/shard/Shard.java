@@ -0,0 +1,243 @@
+package com.notenoughmail.rssifier.shard;
+
+import com.notenoughmail.rssifier.Rssifier;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This process's place among several Rssifier processes sharing one config and {@code feeds} directory
+ * <p>
+ * Each shard has a lease file in the {@code feeds} directory, which its process keeps locked so no two processes run as
+ * the same shard, and which holds the time of the shard's last heartbeat. A shard is considered down once no process
+ * holds its lease and its heartbeat is older than the lease, so shards run on a schedule are not taken over between
+ * runs, and a running shard is never taken over however late its heartbeat is. The feeds of a shard which is down are
+ * handled by the live shards, as decided by the {@link ShardRing ring}, until it is back
+ * <p>
+ * Shards taking over a shard hold a shared lock on its lease file until they next {@link #refresh() refresh}, and a
+ * process joining as that shard waits for them, so the taken over feeds are never handled by two processes at once
+ */
+public final class Shard {
+
+    // Heartbeats are written at a fixed width so the file never has to be truncated, where a reader could see it empty
+    private static final int HEARTBEAT_WIDTH = 20;
+    // Only bytes far past the heartbeat are locked, as some systems do not let other processes read locked bytes
+    private static final long RUNNING = Long.MAX_VALUE - 1;
+    private static final long TAKEN_OVER = Long.MAX_VALUE - 2;
+
+    private final Path feedsPath;
+    private final int index;
+    private final ShardRing ring;
+    private final Duration lease;
+    private final FileChannel channel;
+    private final boolean[] live;
+    // The shared locks held on the lease files of shards which are down, by shard
+    private final @Nullable FileLock[] takenOver;
+
+    private Shard(Path feedsPath, int index, ShardRing ring, Duration lease, FileChannel channel) {
+        this.feedsPath = feedsPath;
+        this.index = index;
+        this.ring = ring;
+        this.lease = lease;
+        this.channel = channel;
+        live = new boolean[ring.shards()];
+        Arrays.fill(live, true);
+        takenOver = new FileLock[ring.shards()];
+    }
+
+    /**
+     * Claims the shard's lease, which is held until the process exits, waiting for any shards which have taken it over
+     * to let go of it
+     *
+     * @throws IllegalStateException If another process is running as the shard
+     */
+    public static Shard join(Path feedsPath, int index, int shards, Duration lease) throws IOException {
+        final FileChannel channel = FileChannel.open(leasePath(feedsPath, index), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock(RUNNING, 1, false) == null) {
+                throw new IllegalStateException("Shard %d is already being run by another process".formatted(index));
+            }
+            // Shards holding the shard see that it is running on their next refresh and let go
+            channel.lock(TAKEN_OVER, 1, false).release();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        final Shard shard = new Shard(feedsPath, index, new ShardRing(shards), lease, channel);
+        shard.heartbeat();
+        return shard;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    /**
+     * Renews the shard's lease
+     */
+    public synchronized void heartbeat() throws IOException {
+        final String now = Long.toString(System.currentTimeMillis());
+        channel.write(ByteBuffer.wrap(("0".repeat(HEARTBEAT_WIDTH - now.length()) + now).getBytes(StandardCharsets.US_ASCII)), 0);
+        channel.force(false);
+    }
+
+    /**
+     * Renews the shard's lease several times per lease, for as long as the process runs
+     */
+    public void keepAlive(Rssifier rss) {
+        final Duration interval = lease.dividedBy(3);
+        Thread.ofVirtual().name("Rssifier shard heartbeat").start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(interval);
+                    try {
+                        heartbeat();
+                    } catch (IOException e) {
+                        rss.err("Unable to renew the lease of shard %d, its feeds may be taken over by other shards".formatted(index), e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * Checks which shards are live, which decides which feeds this shard {@link #owns(Path) owns} until the next refresh
+     *
+     * @return The shards which have gone down since the last refresh, every shard which is down on the first refresh
+     */
+    public synchronized List<Integer> refresh() {
+        final long now = System.currentTimeMillis();
+        final List<Integer> down = new ArrayList<>();
+        for (int shard = 0 ; shard < live.length ; shard++) {
+            final boolean wasLive = live[shard];
+            if (shard == index || now - heartbeat(shard) < lease.toMillis()) {
+                release(shard);
+                live[shard] = true;
+            } else {
+                live[shard] = !takeOver(shard);
+            }
+            if (wasLive && !live[shard]) {
+                down.add(shard);
+            }
+        }
+        return down;
+    }
+
+    /**
+     * Holds the shard's lease file so a process joining as it waits until the next refresh, unless it is running or
+     * being joined
+     *
+     * @return If the shard is not running and is now held until the next refresh
+     */
+    private boolean takeOver(int shard) {
+        final FileLock held = takenOver[shard];
+        takenOver[shard] = null;
+        FileChannel lease = held == null ? null : held.channel();
+        try {
+            if (lease == null) {
+                lease = FileChannel.open(leasePath(feedsPath, shard), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            final FileLock hold = held != null ? held : lease.tryLock(TAKEN_OVER, 1, true);
+            final FileLock running = hold == null ? null : lease.tryLock(RUNNING, 1, false);
+            if (running != null) {
+                running.release();
+                takenOver[shard] = hold;
+                return true;
+            }
+        } catch (IOException e) {
+            // Without its lease file the shard is only down once its heartbeat is stale, which it already is
+            close(lease);
+            return true;
+        }
+        close(lease);
+        return false;
+    }
+
+    private void release(int shard) {
+        final FileLock held = takenOver[shard];
+        if (held != null) {
+            takenOver[shard] = null;
+            close(held.channel());
+        }
+    }
+
+    private static void close(@Nullable FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * @param file The feed's file
+     * @return If this shard should handle the feed
+     */
+    public synchronized boolean owns(Path file) {
+        return ring.owner(file.getFileName().toString(), shard -> live[shard]) == index;
+    }
+
+    /**
+     * @return The state files of every other shard
+     */
+    public List<Path> otherStates() {
+        final List<Path> states = new ArrayList<>();
+        for (int shard = 0 ; shard < live.length ; shard++) {
+            if (shard != index) {
+                states.add(statePath(feedsPath, shard));
+            }
+        }
+        return states;
+    }
+
+    public static Path statePath(Path feedsPath, int shard) {
+        return feedsPath.resolve("Rssifier State %d.jsonl".formatted(shard));
+    }
+
+    /**
+     * Runs the action while holding an exclusive lock on the file, shared with every process using the same file
+     */
+    public static void locked(Path file, Action action) throws Exception {
+        try (FileChannel lockChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            final FileLock lock = lockChannel.lock();
+            try {
+                action.run();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * @return The time of the shard's last heartbeat, in epoch milliseconds, or 0 if it has never had one
+     */
+    private long heartbeat(int shard) {
+        try {
+            return Long.parseLong(Files.readString(leasePath(feedsPath, shard), StandardCharsets.US_ASCII).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Path leasePath(Path feedsPath, int shard) {
+        return feedsPath.resolve("Rssifier Shard %d.lease".formatted(shard));
+    }
+
+    @FunctionalInterface
+    public interface Action {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,66 @@
+package com.notenoughmail.rssifier.shard;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * A consistent hash ring of shards, each feed belongs to the first live shard at or after its position on the ring
+ * <p>
+ * Every shard is placed on the ring many times so that feeds are spread evenly, and so that the feeds of a shard which
+ * is down are spread over all the others rather than all going to its neighbour. Positions only depend on the number
+ * of shards and the feed's name, so every process agrees on where each feed belongs
+ */
+public final class ShardRing {
+
+    private static final int POINTS_PER_SHARD = 128;
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final int shards;
+
+    public ShardRing(int shards) {
+        this.shards = shards;
+        for (int shard = 0 ; shard < shards ; shard++) {
+            for (int point = 0 ; point < POINTS_PER_SHARD ; point++) {
+                ring.putIfAbsent(hash("shard %d #%d".formatted(shard, point)), shard);
+            }
+        }
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    /**
+     * @param name The feed's file name
+     * @param live If a shard is live, at least one shard must be
+     * @return The shard the feed belongs to
+     */
+    public int owner(String name, IntPredicate live) {
+        final long position = hash(name);
+        for (Map.Entry<Long, Integer> point : ring.tailMap(position, true).entrySet()) {
+            if (live.test(point.getValue())) {
+                return point.getValue();
+            }
+        }
+        // Wrap around to the start of the ring
+        for (Map.Entry<Long, Integer> point : ring.headMap(position, false).entrySet()) {
+            if (live.test(point.getValue())) {
+                return point.getValue();
+            }
+        }
+        throw new IllegalArgumentException("No shard is live");
+    }
+
+    private static long hash(String key) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8))).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+        }
+    }
+}
@@ -5,4 +5,7 @@ module rssifier.main {
     requires org.jspecify;
     requires com.google.gson;
     requires org.jsoup;
+    requires jdk.management;
+    requires java.net.http;
+    requires jdk.httpserver;
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.notenoughmail.rssifier.components;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigSnapshotTest {
+
+    @TempDir
+    Path feeds;
+
+    @Test
+    void roundTrip() throws IOException {
+        final Config config = config();
+        final Path snapshot = feeds.resolve("Rssifier Config.snapshot");
+        final String key = ConfigSnapshot.key("{}".getBytes(StandardCharsets.UTF_8));
+        ConfigSnapshot.write(snapshot, key, config, feeds);
+
+        final Config read = ConfigSnapshot.read(snapshot, key, feeds);
+        assertNotNull(read);
+        assertEquals(config, read);
+        // Equal queries are only compared by their selector, they must also still compile
+        for (FeedDef def : read.feeds()) {
+            def.posts().queries().forEach(query -> assertNotNull(query.evaluator()));
+        }
+    }
+
+    @Test
+    void otherKeysAreNotRead() throws IOException {
+        final Path snapshot = feeds.resolve("Rssifier Config.snapshot");
+        ConfigSnapshot.write(snapshot, ConfigSnapshot.key("{}".getBytes(StandardCharsets.UTF_8)), config(), feeds);
+        assertNull(ConfigSnapshot.read(snapshot, ConfigSnapshot.key("{ }".getBytes(StandardCharsets.UTF_8)), feeds));
+    }
+
+    @Test
+    void missingFeedFilesAreNotRead() throws IOException {
+        final Path snapshot = feeds.resolve("Rssifier Config.snapshot");
+        final String key = ConfigSnapshot.key("{}".getBytes(StandardCharsets.UTF_8));
+        final Config config = config();
+        ConfigSnapshot.write(snapshot, key, config, feeds);
+        Files.delete(config.feeds().getLast().file());
+        assertNull(ConfigSnapshot.read(snapshot, key, feeds));
+    }
+
+    @Test
+    void missingSnapshotIsNotRead() {
+        assertNull(ConfigSnapshot.read(feeds.resolve("Rssifier Config.snapshot"), "key", feeds));
+    }
+
+    /**
+     * Fails when an option is added without being added to the snapshot and to {@link #config()}
+     */
+    @Test
+    void everyOptionIsCovered() {
+        assertEquals(14, Config.class.getRecordComponents().length, "Config has changed, update ConfigSnapshot and this test");
+        assertEquals(17, FeedDef.class.getRecordComponents().length, "FeedDef has changed, update ConfigSnapshot and this test");
+        assertEquals(7, PostDef.class.getRecordComponents().length, "PostDef has changed, update ConfigSnapshot and this test");
+        assertEquals(3, Description.class.getPermittedSubclasses().length, "Description has changed, update ConfigSnapshot and this test");
+    }
+
+    /**
+     * Every option differs from its default and between the two feeds, so a field which is not stored, or stored in
+     * the wrong place, does not read back equal
+     */
+    private Config config() throws IOException {
+        return new Config(
+                25,
+                7,
+                true,
+                16,
+                Duration.ofHours(3).plusMillis(250),
+                true,
+                true,
+                9,
+                Duration.ofMinutes(45),
+                8080,
+                "0.0.0.0",
+                3,
+                Duration.ofSeconds(90),
+                List.of(
+                        new FeedDef(
+                                "https://example.org/blog",
+                                "Blog — ünïcode",
+                                file("blog.xml"),
+                                12,
+                                true,
+                                false,
+                                Duration.ofDays(1).plusHours(2),
+                                EnumSet.of(DayOfWeek.MONDAY, DayOfWeek.SUNDAY),
+                                3,
+                                Duration.ofMillis(1500),
+                                true,
+                                false,
+                                4 << 20,
+                                Duration.ofSeconds(5),
+                                Duration.ofSeconds(20),
+                                0,
+                                new PostDef(
+                                        Query.of("h2.entry-title > a"),
+                                        Query.of("time.published"),
+                                        Query.of("h2.entry-title > a[href]"),
+                                        new Description.Simple(Query.of("div.entry-summary")),
+                                        Query.of("span.author > a"),
+                                        true,
+                                        Query.of("main > article")
+                                )
+                        ),
+                        new FeedDef(
+                                "https://example.com/news",
+                                "News",
+                                file("news.xml"),
+                                3,
+                                false,
+                                true,
+                                null,
+                                EnumSet.noneOf(DayOfWeek.class),
+                                1,
+                                Duration.ZERO,
+                                false,
+                                true,
+                                1 << 20,
+                                Duration.ofSeconds(2),
+                                Duration.ofMinutes(1),
+                                5,
+                                new PostDef(
+                                        Query.of("article:first-of-type h1"),
+                                        null,
+                                        Query.of("article:first-of-type a.permalink"),
+                                        new Description.Complex(List.of(Query.of("p.lead"), Query.of("figure > img"), Query.of("div[data-x=\"a > b, c\"]"))),
+                                        null,
+                                        false,
+                                        null
+                                )
+                        ),
+                        new FeedDef(
+                                "https://example.net/",
+                                "Nested",
+                                file("sub/nested.xml"),
+                                1,
+                                false,
+                                false,
+                                Duration.ofSeconds(30, 5),
+                                EnumSet.allOf(DayOfWeek.class),
+                                2,
+                                Duration.ZERO,
+                                false,
+                                false,
+                                2048 << 10,
+                                Duration.ofSeconds(10),
+                                Duration.ofSeconds(30),
+                                2,
+                                new PostDef(
+                                        Query.of("h1"),
+                                        Query.of("time"),
+                                        Query.of("a"),
+                                        Description.Absent.INSTANCE,
+                                        Query.of(".by"),
+                                        false,
+                                        null
+                                )
+                        )
+                )
+        );
+    }
+
+    private Path file(String name) throws IOException {
+        final Path file = feeds.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "<rss/>");
+        return file;
+    }
+}
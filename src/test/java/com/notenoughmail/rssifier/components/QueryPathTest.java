@@ -0,0 +1,130 @@
+package com.notenoughmail.rssifier.components;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.notenoughmail.rssifier.components.QueryPath.Combinator.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryPathTest {
+
+    @Test
+    void quotedCombinatorsAndCommasStayInTheirStep() {
+        assertEquals(List.of(
+                new QueryPath.Step(DESCENDANT, "a[title=\"x > y, z\"]"),
+                new QueryPath.Step(CHILD, "b[data-x='1 ~ 2 + 3']")
+        ), steps("a[title=\"x > y, z\"] > b[data-x='1 ~ 2 + 3']"));
+    }
+
+    @Test
+    void escapedQuotesDoNotEndTheValue() {
+        assertEquals(List.of(
+                new QueryPath.Step(DESCENDANT, "a[title=\"say \\\" > hi\"]"),
+                new QueryPath.Step(DESCENDANT, "b")
+        ), steps("a[title=\"say \\\" > hi\"] b"));
+    }
+
+    @Test
+    void combinatorsInsideParenthesesStayInTheirStep() {
+        assertEquals(List.of(
+                new QueryPath.Step(DESCENDANT, "div:has(> a)"),
+                new QueryPath.Step(DESCENDANT, "span:not(.x, .y)")
+        ), steps("div:has(> a) span:not(.x, .y)"));
+    }
+
+    @Test
+    void siblingCombinators() {
+        assertEquals(List.of(
+                new QueryPath.Step(DESCENDANT, "h1"),
+                new QueryPath.Step(ADJACENT, "p"),
+                new QueryPath.Step(SIBLING, "span"),
+                new QueryPath.Step(CHILD, "a")
+        ), steps("h1+p ~ span>a"));
+    }
+
+    @Test
+    void leadingCombinator() {
+        assertEquals(List.of(
+                new QueryPath.Step(CHILD, "div"),
+                new QueryPath.Step(DESCENDANT, "p")
+        ), steps("> div p"));
+    }
+
+    @Test
+    void groupsHaveNoPath() {
+        assertNull(QueryPath.parse("a, b"));
+        assertNull(QueryPath.parse("div > a,span"));
+        assertNotNull(QueryPath.parse(":is(a, b) c"));
+    }
+
+    @Test
+    void prefixRebuildsTheSelector() {
+        final QueryPath path = QueryPath.parse("div.posts   >  div.post h3 + p ~ a");
+        assertNotNull(path);
+        assertEquals("div.posts", path.prefix(1));
+        assertEquals("div.posts > div.post", path.prefix(2));
+        assertEquals("div.posts > div.post h3 + p ~ a", path.prefix(5));
+    }
+
+    @Test
+    void walkStopsAtTheFirstStepWhichMatchesNothing() {
+        final Document doc = Jsoup.parse("""
+                <div class="posts">
+                  <div class="post"><h3><a href="/1">One</a></h3></div>
+                  <div class="post"><h3><a href="/2">Two</a></h3></div>
+                </div>
+                """);
+        final QueryPath path = QueryPath.parse("div.posts > div.post h3 a.missing span");
+        assertNotNull(path);
+        final List<List<Element>> matches = path.walk(doc);
+
+        assertEquals(4, matches.size());
+        assertEquals(1, matches.get(0).size());
+        assertEquals(2, matches.get(1).size());
+        assertEquals(2, matches.get(2).size());
+        assertTrue(matches.get(3).isEmpty());
+    }
+
+    @Test
+    void walkMatchesAreInDocumentOrder() {
+        final Document doc = Jsoup.parse("""
+                <div id="a">
+                  <p id="p1"></p><span id="s1"></span>
+                  <div id="b"><p id="p2"></p><span id="s2"></span></div>
+                  <p id="p3"></p><span id="s3"></span>
+                </div>
+                """);
+        final QueryPath path = QueryPath.parse("div > p + span");
+        assertNotNull(path);
+        final List<List<Element>> matches = path.walk(doc);
+
+        assertEquals(List.of("a", "b"), ids(matches.get(0)));
+        // Found from both divs, #p3 is reached from #a before #p2 is reached from #b
+        assertEquals(List.of("p1", "p2", "p3"), ids(matches.get(1)));
+        assertEquals(List.of("s1", "s2", "s3"), ids(matches.get(2)));
+    }
+
+    @Test
+    void walkMatchesWhatSelectMatches() {
+        final Document doc = Jsoup.parse("<ul><li><a>1</a></li><li class=x><a>2</a><a>3</a></li></ul><p><a>4</a></p>");
+        for (String css : List.of("ul li a", "ul > li.x > a", "li + li a", "li ~ li > a", "a")) {
+            final QueryPath path = QueryPath.parse(css);
+            assertNotNull(path);
+            assertEquals(doc.select(css), path.walk(doc).getLast(), css);
+        }
+    }
+
+    private static List<QueryPath.Step> steps(String css) {
+        final QueryPath path = QueryPath.parse(css);
+        assertNotNull(path);
+        return path.steps();
+    }
+
+    private static List<String> ids(List<Element> elements) {
+        return elements.stream().map(Element::id).toList();
+    }
+}
@@ -0,0 +1,126 @@
+package com.notenoughmail.rssifier.feed;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedModelTest {
+
+    private static final String HEAD = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <rss version="2.0"><channel>
+              <title>Test</title>
+              """;
+    private static final String TAIL = """
+            </channel></rss>
+            """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void markupInCommentsAndCdataIsNotAnItem() throws IOException {
+        final String head = HEAD + "<!-- <item><title>Commented</title></item> -->\n  ";
+        final String first = "<item><title>First</title><description><![CDATA[<item>inside</item> </channel>]]></description></item>\n  ";
+        final String second = "<item><title>Second</title><!-- </item> --></item>";
+        final FeedModel model = load(head + first + second + "\n" + TAIL);
+
+        assertEquals(List.of("First", "Second"), model.items().stream().map(FeedItem::title).toList());
+        assertEquals(first, model.items().get(0).toString());
+        assertEquals(second, model.items().get(1).toString());
+    }
+
+    @Test
+    void quotedGreaterThanStaysInsideItsItem() throws IOException {
+        final String first = "<item data=\"a>b\"><title lang=\"x>y\">First</title><enclosure url=\"https://example.com/?a>b\" type=\"audio/mpeg\"/></item>";
+        final FeedModel model = load(HEAD + first + "\n" + TAIL);
+
+        assertEquals(1, model.items().size());
+        assertEquals("First", model.items().getFirst().title());
+        assertEquals(first, model.items().getFirst().toString());
+    }
+
+    @Test
+    void unchangedFeedIsNotRewritten() throws IOException {
+        final String content = HEAD + "<item><title>First</title></item>\n" + TAIL;
+        final FeedModel model = load(content);
+
+        assertNull(model.write());
+        assertEquals(content, read());
+    }
+
+    @Test
+    void postsAreAddedToAnEmptyChannel() throws IOException {
+        final FeedModel model = load(HEAD + TAIL);
+        assertTrue(model.items().isEmpty());
+
+        model.addPosts(List.of(post("New")), 10);
+        assertNotNull(model.write());
+        assertEquals(HEAD + serialized("New") + TAIL, read());
+    }
+
+    @Test
+    void existingItemsAreKeptByteForByteAndTruncatedToKeep() throws IOException {
+        final String first = "<item>\n    <title>First &amp; best</title>\n    <link>https://example.com/1?utm_source=rss</link>\n  </item>\n  ";
+        final String second = "<item><title><![CDATA[Second]]></title></item>\n  ";
+        final String third = "<item><title>Third</title></item>";
+        final FeedModel model = load(HEAD + first + second + third + "\n" + TAIL);
+
+        model.addPosts(List.of(post("New")), 3);
+        assertNotNull(model.write());
+        // The whitespace between items stays with the item before it, the whitespace after the last is part of the tail
+        assertEquals(HEAD + serialized("New") + first + second + "\n" + TAIL, read());
+        assertEquals(List.of("New", "First & best", "Second"), model.items().stream().map(FeedItem::title).toList());
+    }
+
+    @Test
+    void legacyTimeStampIsStripped() throws IOException {
+        final String item = "<item><title>First</title></item>\n";
+        final FeedModel model = load(HEAD + "<timeStamp>2020-01-01T00:00:00</timeStamp>\n  " + item + TAIL);
+
+        assertNotNull(model.write());
+        assertEquals(HEAD.stripTrailing() + "\n  " + item + TAIL, read());
+    }
+
+    @Test
+    void channelIsRequired() throws IOException {
+        Files.writeString(file(), "<rss><!-- <channel></channel> --></rss>");
+        assertThrows(IOException.class, () -> FeedModel.load(file(), Files.readAttributes(file(), BasicFileAttributes.class)));
+    }
+
+    private FeedModel load(String content) throws IOException {
+        Files.writeString(file(), content, StandardCharsets.UTF_8);
+        return FeedModel.load(file(), Files.readAttributes(file(), BasicFileAttributes.class));
+    }
+
+    private String read() throws IOException {
+        return Files.readString(file(), StandardCharsets.UTF_8);
+    }
+
+    private Path file() {
+        return dir.resolve("test.xml");
+    }
+
+    private static Element post(String title) {
+        final Element post = new Element("item", Parser.NamespaceXml);
+        post.insertChildren(-1,
+                new Element("title").appendText(title),
+                new Element("link").appendText("https://example.com/%s?utm_source=rss".formatted(title))
+        );
+        return post;
+    }
+
+    private static String serialized(String title) {
+        return FeedItem.of(post(title)).toString();
+    }
+}
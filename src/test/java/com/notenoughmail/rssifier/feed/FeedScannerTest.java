@@ -0,0 +1,40 @@
+package com.notenoughmail.rssifier.feed;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedScannerTest {
+
+    @Test
+    void findSkipsCommentsAndCdata() {
+        final byte[] content = bytes("<!-- <item> --><![CDATA[<item>]]><items/><item>");
+        assertEquals(content.length - "<item>".length(), FeedScanner.find(content, 0, content.length, "item", false));
+        assertEquals(-1, FeedScanner.find(content, 0, content.length, "item", true));
+    }
+
+    @Test
+    void unclosedCommentHidesTheRest() {
+        final byte[] content = bytes("<!-- <item>");
+        assertEquals(-1, FeedScanner.find(content, 0, content.length, "item", false));
+    }
+
+    @Test
+    void tagEndSkipsQuotedValues() {
+        final byte[] content = bytes("<item a=\"1>2\" b='3>4'>rest");
+        assertEquals(content.length - "rest".length(), FeedScanner.tagEnd(content, 0, content.length));
+    }
+
+    @Test
+    void textResolvesCdataAndEntities() {
+        final byte[] content = bytes("<item><title lang=\"a>b\">  Tom &amp; <![CDATA[<Jerry>]]>\n show </title></item>");
+        assertEquals("Tom & <Jerry> show", FeedScanner.text(content, 0, content.length, "title"));
+        assertNull(FeedScanner.text(content, 0, content.length, "link"));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,150 @@
+package com.notenoughmail.rssifier.fetch;
+
+import com.notenoughmail.rssifier.components.Description;
+import com.notenoughmail.rssifier.components.PostDef;
+import com.notenoughmail.rssifier.components.Query;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SentinelTest {
+
+    private static final PostDef POSTS = new PostDef(
+            Query.of("article:first-of-type h2 > a"),
+            null,
+            Query.of("article:first-of-type h2 > a"),
+            Description.Absent.INSTANCE,
+            null,
+            false,
+            null
+    );
+
+    private static final String SITE = """
+            <html><head><link href="/style.css" rel="stylesheet"></head><body>
+            <nav><a href="/">Home</a> <a HREF = "/about">About</a></nav>
+            <main>
+            %s<article><h2><a href="/posts/10">Latest post</a></h2><p>Read <a href='/posts/10'>more</a></p></article>
+            <article><h2><a href="/posts/9">Older post</a></h2></article>
+            </main>
+            <footer><a href="/feed">Feed</a></footer>
+            </body></html>
+            """;
+
+    @Test
+    void sameSiteMatches() throws IOException {
+        final byte[] body = site("");
+        final Sentinel sentinel = sentinel(body);
+        assertEquals(new Sentinel("/posts/10", 4, "Latest post", 4, "UTF-8"), sentinel);
+        assertTrue(sentinel.matches(body));
+    }
+
+    @Test
+    void changesAfterThePostMatch() throws IOException {
+        final Sentinel sentinel = sentinel(site(""));
+        assertTrue(sentinel.matches(utf8(SITE.formatted("").replace("<a href=\"/feed\">Feed</a>", "<a href=\"/feed\">Feed</a> <a href=\"/new\">New</a>"))));
+    }
+
+    @Test
+    void newPostDoesNotMatch() throws IOException {
+        final Sentinel sentinel = sentinel(site(""));
+        assertFalse(sentinel.matches(site("<article><h2><a href=\"/posts/11\">Newest post</a></h2></article>\n")));
+    }
+
+    @Test
+    void linkMovedDoesNotMatch() throws IOException {
+        final Sentinel sentinel = sentinel(site(""));
+        // The link is still in the site, but first written after more, or fewer, links than before
+        assertFalse(sentinel.matches(utf8(SITE.formatted("").replace("<a href=\"/posts/10\">Latest post</a>", "<a href=\"/posts/10x\">Latest post</a>"))));
+        assertFalse(sentinel.matches(utf8(SITE.formatted("").replace("<nav>", "<nav><a href=\"/posts/10\">Pinned</a>"))));
+    }
+
+    @Test
+    void titleChangedDoesNotMatch() throws IOException {
+        final Sentinel sentinel = sentinel(site(""));
+        assertFalse(sentinel.matches(utf8(SITE.formatted("").replace(">Latest post<", ">Latest post, edited<"))));
+        assertFalse(sentinel.matches(utf8(SITE.formatted("").replace(">Latest post<", ">The Latest post<"))));
+    }
+
+    @Test
+    void titleMovedBeforeTheLinkDoesNotMatch() throws IOException {
+        final Sentinel sentinel = sentinel(site(""));
+        assertFalse(sentinel.matches(utf8(SITE.formatted("").replace("<nav>", "<nav><span>Latest post</span>"))));
+    }
+
+    @Test
+    void partialLinksAndTitlesAreNotFound() throws IOException {
+        final Sentinel sentinel = sentinel(site(""));
+        final String longer = SITE.formatted("").replace("\"/posts/10\"", "\"/posts/100\"").replace("'/posts/10'", "'/posts/100'");
+        assertFalse(sentinel.matches(utf8(longer)));
+        assertEquals(-1, Sentinel.find(utf8("<p>Latest post and more</p>"), utf8("Latest post"), true));
+        assertEquals(5, Sentinel.find(utf8("<p>  Latest post\n</p>"), utf8("Latest post"), true));
+    }
+
+    @Test
+    void charsetMismatchDoesNotMatch() throws IOException {
+        final String site = SITE.formatted("").replace("Latest post", "Café crème");
+        final byte[] latin1 = site.getBytes(StandardCharsets.ISO_8859_1);
+        final Sentinel sentinel = sentinel(latin1, StandardCharsets.ISO_8859_1);
+        assertEquals("ISO-8859-1", sentinel.charset());
+        assertTrue(sentinel.matches(latin1));
+        assertFalse(sentinel.matches(site.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void unknownCharsetDoesNotMatch() throws IOException {
+        final byte[] body = site("");
+        final Sentinel sentinel = sentinel(body);
+        assertFalse(new Sentinel(sentinel.link(), sentinel.linkHrefs(), sentinel.title(), sentinel.titleHrefs(), "not-a-charset").matches(body));
+    }
+
+    @Test
+    void titlesWithEntitiesHaveNoSentinel() throws IOException {
+        final byte[] body = utf8(SITE.formatted("").replace("Latest post", "Tom &amp; Jerry"));
+        assertNull(Sentinel.of(POSTS, parse(body, StandardCharsets.UTF_8), body));
+    }
+
+    @Test
+    void hrefsAreCountedInEitherOrder() {
+        final byte[] bytes = utf8("<a href=1><a HREF =2><b data-href=3><a href\n=4><a hrefs=5>");
+        assertArrayEquals(new int[] {1, 3}, Sentinel.hrefsBefore(bytes, 10, 36));
+        assertArrayEquals(new int[] {3, 1}, Sentinel.hrefsBefore(bytes, 36, 10));
+        assertArrayEquals(new int[] {4, 4}, Sentinel.hrefsBefore(bytes, bytes.length, bytes.length));
+        assertArrayEquals(new int[] {0, 0}, Sentinel.hrefsBefore(bytes, 0, 0));
+    }
+
+    @Test
+    void json() throws IOException {
+        final Sentinel sentinel = sentinel(site(""));
+        assertEquals(sentinel, Sentinel.read(sentinel.toJson()));
+    }
+
+    private static Sentinel sentinel(byte[] body) throws IOException {
+        return sentinel(body, StandardCharsets.UTF_8);
+    }
+
+    private static Sentinel sentinel(byte[] body, Charset charset) throws IOException {
+        final @Nullable Sentinel sentinel = Sentinel.of(POSTS, parse(body, charset), body);
+        assertNotNull(sentinel);
+        return sentinel;
+    }
+
+    private static Document parse(byte[] body, Charset charset) throws IOException {
+        return Jsoup.parse(new ByteArrayInputStream(body), charset.name(), "https://example.org/");
+    }
+
+    private static byte[] site(String before) {
+        return utf8(SITE.formatted(before));
+    }
+
+    private static byte[] utf8(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package com.notenoughmail.rssifier.serve;
+
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedServerTest {
+
+    private static final byte[] FEED = "<rss><channel><title>Test</title></channel></rss>".getBytes(StandardCharsets.UTF_8);
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    private static FeedServer server;
+
+    @BeforeAll
+    static void start() throws IOException {
+        server = FeedServer.start("127.0.0.1", 0);
+        server.publish(Path.of("test.xml"), FEED);
+    }
+
+    @Test
+    void codingsHaveTheirOwnTags() throws Exception {
+        final HttpResponse<byte[]> identity = get(null, null);
+        final HttpResponse<byte[]> gzip = get("gzip", null);
+        assertEquals(200, identity.statusCode());
+        assertEquals(200, gzip.statusCode());
+        assertArrayEquals(FEED, identity.body());
+        assertEquals("gzip", gzip.headers().firstValue("Content-Encoding").orElseThrow());
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.body()))) {
+            assertArrayEquals(FEED, in.readAllBytes());
+        }
+        final String identityTag = identity.headers().firstValue("ETag").orElseThrow();
+        final String gzipTag = gzip.headers().firstValue("ETag").orElseThrow();
+        assertNotEquals(identityTag, gzipTag);
+        assertEquals("Accept-Encoding", identity.headers().firstValue("Vary").orElseThrow());
+        assertEquals("Accept-Encoding", gzip.headers().firstValue("Vary").orElseThrow());
+    }
+
+    @Test
+    void notModifiedOnlyForTheServedCodingsTag() throws Exception {
+        final String identityTag = get(null, null).headers().firstValue("ETag").orElseThrow();
+        final String gzipTag = get("gzip", null).headers().firstValue("ETag").orElseThrow();
+        assertEquals(304, get(null, identityTag).statusCode());
+        assertEquals(304, get("gzip", gzipTag).statusCode());
+        assertEquals(200, get("gzip", identityTag).statusCode());
+        assertEquals(200, get(null, gzipTag).statusCode());
+        assertEquals(304, get("gzip", "\"other\", W/" + gzipTag).statusCode());
+    }
+
+    @Test
+    void unknownFeed() throws Exception {
+        assertEquals(404, CLIENT.send(HttpRequest.newBuilder(uri("missing.xml")).build(), HttpResponse.BodyHandlers.discarding()).statusCode());
+    }
+
+    private static HttpResponse<byte[]> get(@Nullable String acceptEncoding, @Nullable String ifNoneMatch) throws Exception {
+        final HttpRequest.Builder request = HttpRequest.newBuilder(uri("test.xml"));
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static URI uri(String file) {
+        return URI.create("http://127.0.0.1:%d/%s".formatted(server.port(), file));
+    }
+}
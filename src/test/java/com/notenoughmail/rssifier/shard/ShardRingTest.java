@@ -0,0 +1,77 @@
+package com.notenoughmail.rssifier.shard;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRingTest {
+
+    private static final int FEEDS = 10_000;
+
+    @Test
+    void removingAShardOnlyMovesItsFeeds() {
+        final ShardRing ring = new ShardRing(5);
+        final int[] moved = new int[5];
+        for (int feed = 0 ; feed < FEEDS ; feed++) {
+            final String name = name(feed);
+            final int owner = ring.owner(name, shard -> true);
+            final int takenOver = ring.owner(name, shard -> shard != 2);
+            if (owner == 2) {
+                assertNotEquals(2, takenOver);
+                moved[takenOver]++;
+            } else {
+                assertEquals(owner, takenOver, name);
+            }
+        }
+        // The down shard's feeds are spread over every other shard rather than going to one neighbour
+        for (int shard = 0 ; shard < 5 ; shard++) {
+            if (shard != 2) {
+                assertTrue(moved[shard] > 0, "Shard %d took over none of shard 2's feeds".formatted(shard));
+            }
+        }
+    }
+
+    @Test
+    void addingAShardOnlyMovesFeedsToIt() {
+        final ShardRing before = new ShardRing(4), after = new ShardRing(5);
+        for (int feed = 0 ; feed < FEEDS ; feed++) {
+            final String name = name(feed);
+            final int owner = after.owner(name, shard -> true);
+            if (owner != 4) {
+                assertEquals(before.owner(name, shard -> true), owner, name);
+            }
+        }
+    }
+
+    @Test
+    void feedsAreBalanced() {
+        for (int shards : new int[] {2, 3, 5, 8}) {
+            final ShardRing ring = new ShardRing(shards);
+            final int[] owned = new int[shards];
+            for (int feed = 0 ; feed < FEEDS ; feed++) {
+                owned[ring.owner(name(feed), shard -> true)]++;
+            }
+            final double fair = FEEDS / (double) shards;
+            for (int shard = 0 ; shard < shards ; shard++) {
+                assertEquals(fair, owned[shard], fair * 0.25, "Shard %d of %d owns %d feeds".formatted(shard, shards, owned[shard]));
+            }
+        }
+    }
+
+    @Test
+    void ownersAreStable() {
+        final ShardRing first = new ShardRing(3), second = new ShardRing(3);
+        for (int feed = 0 ; feed < 100 ; feed++) {
+            assertEquals(first.owner(name(feed), shard -> true), second.owner(name(feed), shard -> true));
+        }
+    }
+
+    @Test
+    void noLiveShard() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(3).owner("feed", shard -> false));
+    }
+
+    private static String name(int feed) {
+        return "feed-%05d.xml".formatted(feed);
+    }
+}